@@ -0,0 +1,279 @@
+
+import java.util.Arrays;
+
+/**
+ * Lista de detecções guardada em vetores primitivos paralelos (um vetor por
+ * campo), em vez de uma lista de {@link ObjDetec}. Guarda o centro, a
+ * largura, a altura, o {@linkplain ObjDetec.CascOrigin cascade de origem} e a
+ * flag {@linkplain ObjDetec#isExact() Exact} de cada detecção. Os vetores só
+ * crescem, e são reusados depois de {@link #clear()}, então incluir e
+ * processar detecções não aloca nada depois que a capacidade se estabiliza.
+ * <p>
+ * Para quem ainda trabalha com {@link ObjDetec}, {@link #view(int, ObjDetec)}
+ * copia uma detecção para um objeto já existente.
+ */
+public class ArmazemDeteccoes {
+
+    int[] x;
+    int[] y;
+    int[] largura;
+    int[] altura;
+    /**
+     * {@linkplain ObjDetec.CascOrigin#id Id} do cascade de origem.
+     */
+    int[] cascade;
+    boolean[] exact;
+    int tamanho;
+
+    /**
+     * Vetores de trabalho de {@link #suprimeSobrepostos(double)}, criados na
+     * primeira supressão e reusados depois.
+     */
+    private long[] prioridade = new long[0];
+    private long[] varredura = new long[0];
+    private boolean[] descartado = new boolean[0];
+
+    public ArmazemDeteccoes() {
+        this(16);
+    }
+
+    /**
+     * @param capacidade Capacidade inicial.
+     */
+    public ArmazemDeteccoes(int capacidade) {
+        capacidade = Math.max(1, capacidade);
+        x = new int[capacidade];
+        y = new int[capacidade];
+        largura = new int[capacidade];
+        altura = new int[capacidade];
+        cascade = new int[capacidade];
+        exact = new boolean[capacidade];
+    }
+
+    public int size() {
+        return tamanho;
+    }
+
+    public boolean isEmpty() {
+        return tamanho == 0;
+    }
+
+    public void clear() {
+        tamanho = 0;
+    }
+
+    /**
+     * Garante espaço para pelo menos n detecções.
+     *
+     * @param n Capacidade necessária.
+     */
+    public void ensureCapacity(int n) {
+        if (n <= x.length)
+            return;
+        int c = Math.max(n, x.length * 2);
+        x = Arrays.copyOf(x, c);
+        y = Arrays.copyOf(y, c);
+        largura = Arrays.copyOf(largura, c);
+        altura = Arrays.copyOf(altura, c);
+        cascade = Arrays.copyOf(cascade, c);
+        exact = Arrays.copyOf(exact, c);
+    }
+
+    /**
+     * Inclui uma detecção no fim da lista.
+     *
+     * @return Indice da detecção incluída.
+     */
+    public int add(int cx, int cy, int width, int height, int cascadeId, boolean isExact) {
+        ensureCapacity(tamanho + 1);
+        int i = tamanho++;
+        x[i] = cx;
+        y[i] = cy;
+        largura[i] = width;
+        altura[i] = height;
+        cascade[i] = cascadeId;
+        exact[i] = isExact;
+        return i;
+    }
+
+    /**
+     * Inclui uma cópia da detecção i de outra lista.
+     *
+     * @return Indice da detecção incluída.
+     */
+    public int add(ArmazemDeteccoes outro, int i) {
+        return add(outro.x[i], outro.y[i], outro.largura[i], outro.altura[i], outro.cascade[i], outro.exact[i]);
+    }
+
+    /**
+     * Inclui todas as detecções de outra lista.
+     */
+    public void addAll(ArmazemDeteccoes outro) {
+        ensureCapacity(tamanho + outro.tamanho);
+        System.arraycopy(outro.x, 0, x, tamanho, outro.tamanho);
+        System.arraycopy(outro.y, 0, y, tamanho, outro.tamanho);
+        System.arraycopy(outro.largura, 0, largura, tamanho, outro.tamanho);
+        System.arraycopy(outro.altura, 0, altura, tamanho, outro.tamanho);
+        System.arraycopy(outro.cascade, 0, cascade, tamanho, outro.tamanho);
+        System.arraycopy(outro.exact, 0, exact, tamanho, outro.tamanho);
+        tamanho += outro.tamanho;
+    }
+
+    public int getX(int i) {
+        return x[i];
+    }
+
+    public int getY(int i) {
+        return y[i];
+    }
+
+    public int getWidth(int i) {
+        return largura[i];
+    }
+
+    public int getHeight(int i) {
+        return altura[i];
+    }
+
+    public int getCascadeId(int i) {
+        return cascade[i];
+    }
+
+    public boolean isExact(int i) {
+        return exact[i];
+    }
+
+    public void setExact(int i, boolean isExact) {
+        exact[i] = isExact;
+    }
+
+    /**
+     * Mesmo teste de {@link ObjDetec#isCenterInside(ObjDetec, double)}, entre
+     * a detecção i e a detecção j de outra lista.
+     *
+     * @param i Detecção cujo centro é testado.
+     * @param outro Lista da detecção que possivelmente contém o centro.
+     * @param j Detecção que possivelmente contém o centro (Container).
+     * @param scale Escala do container.
+     */
+    public boolean isCenterInside(int i, ArmazemDeteccoes outro, int j, double scale) {
+        return ObjDetec.isCenterInside(x[i], y[i], outro.x[j], outro.y[j], outro.largura[j], outro.altura[j], scale);
+    }
+
+    /**
+     * Copia a detecção i para um objeto existente (flyweight).
+     *
+     * @param i Indice da detecção.
+     * @param destino Objeto que recebe os valores.
+     * @return O próprio destino.
+     */
+    public ObjDetec view(int i, ObjDetec destino) {
+        destino.set(x[i], y[i], altura[i], largura[i], ObjDetec.CascOrigin.fromId(cascade[i]), exact[i]);
+        return destino;
+    }
+
+    /**
+     * Supressão de não-máximos: remove as detecções que têm IoU acima do
+     * limite com outra detecção mantida, dando preferência às maiores (o
+     * {@code detectMultiScale} não dá uma pontuação por detecção). As
+     * detecções restantes mantêm a ordem original.
+     * <p>
+     * Os pares são procurados por varredura: as detecções são ordenadas pela
+     * borda esquerda, e só são comparadas as que começam entre a borda
+     * esquerda menos a maior largura e a borda direita da detecção mantida.
+     * Não aloca depois que os vetores de trabalho atingem o tamanho da lista.
+     *
+     * @param iouMaximo IoU acima do qual a menor detecção é removida.
+     * @return Numero de detecções removidas.
+     */
+    public int suprimeSobrepostos(double iouMaximo) {
+        int n = tamanho;
+        if (n < 2)
+            return 0;
+        if (prioridade.length < n) {
+            prioridade = new long[n * 2];
+            varredura = new long[n * 2];
+            descartado = new boolean[n * 2];
+        }
+        int maiorLargura = 0;
+        for (int i = 0; i < n; i++) {
+            //Maior área primeiro e, no empate, a ordem original
+            prioridade[i] = ((long) -(largura[i] * altura[i]) << 32) | i;
+            varredura[i] = ((long) esquerda(i) << 32) | i;
+            descartado[i] = false;
+            maiorLargura = Math.max(maiorLargura, largura[i]);
+        }
+        Arrays.sort(prioridade, 0, n);
+        Arrays.sort(varredura, 0, n);
+
+        int removidos = 0;
+        for (int k = 0; k < n; k++) {
+            int i = (int) prioridade[k];
+            if (descartado[i])
+                continue;
+            //Uma detecção mantida antes não pode passar do limite com esta, senão esta já teria sido descartada
+            int direita = esquerda(i) + largura[i];
+            for (int v = primeiraAPartirDe(esquerda(i) - maiorLargura, n); v < n; v++) {
+                int j = (int) varredura[v];
+                if (esquerda(j) >= direita)
+                    break;
+                if (j != i && !descartado[j] && iou(i, j) > iouMaximo) {
+                    descartado[j] = true;
+                    removidos++;
+                }
+            }
+        }
+        if (removidos == 0)
+            return 0;
+
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (descartado[i])
+                continue;
+            x[m] = x[i];
+            y[m] = y[i];
+            largura[m] = largura[i];
+            altura[m] = altura[i];
+            cascade[m] = cascade[i];
+            exact[m] = exact[i];
+            m++;
+        }
+        tamanho = m;
+        return removidos;
+    }
+
+    private int esquerda(int i) {
+        return x[i] - largura[i] / 2;
+    }
+
+    /**
+     * Busca binária em {@link #varredura}: primeira posição com a borda
+     * esquerda maior ou igual a e.
+     */
+    private int primeiraAPartirDe(int e, int n) {
+        long chave = (long) e << 32;
+        int ini = 0, fim = n;
+        while (ini < fim) {
+            int meio = (ini + fim) >>> 1;
+            if (varredura[meio] < chave)
+                ini = meio + 1;
+            else
+                fim = meio;
+        }
+        return ini;
+    }
+
+    /**
+     * IoU entre as detecções i e j.
+     */
+    private double iou(int i, int j) {
+        int xi = esquerda(i), yi = y[i] - altura[i] / 2;
+        int xj = esquerda(j), yj = y[j] - altura[j] / 2;
+        int iw = Math.min(xi + largura[i], xj + largura[j]) - Math.max(xi, xj);
+        int ih = Math.min(yi + altura[i], yj + altura[j]) - Math.max(yi, yj);
+        if (iw <= 0 || ih <= 0)
+            return 0;
+        double intersecao = (double) iw * ih;
+        return intersecao / ((double) largura[i] * altura[i] + (double) largura[j] * altura[j] - intersecao);
+    }
+}
@@ -0,0 +1,256 @@
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Benchmarks da fusão ({@link EstruturaAmostras}) e da geometria de
+ * {@link ObjDetec}, para comparar mudanças nesses caminhos de forma objetiva.
+ * Para cada combinação de caixas por cascade e de
+ * {@linkplain EstruturaAmostras#NUMFRAMES janela temporal}, mede a vazão
+ * (operações por segundo), os bytes alocados por operação e as coletas de
+ * lixo durante a medição.
+ * <p>
+ * As detecções são geradas antes da medição: um objeto que anda pelo quadro,
+ * visto por cada cascade com um pequeno erro, mais caixas falsas espalhadas
+ * (e às vezes agrupadas, para que a fusão junte falsos positivos também). A
+ * fusão usa só {@link EstruturaAmostras#saveObjs(int[], int, ObjDetec.CascOrigin)}
+ * e {@link EstruturaAmostras#evaluateSamples()}, então roda sem a biblioteca
+ * nativa do OpenCV.
+ * <p>
+ * Uso: {@code BenchmarkFusao [-caixas 1,10,100,500] [-frames 3,30,300]
+ * [-tempo ms] [-filtro nome]}. Deve rodar sem {@code -ea}, pois com as
+ * assertions ligadas a fusão também roda a busca completa para conferir a
+ * grade espacial.
+ */
+public class BenchmarkFusao {
+
+    /**
+     * Operação medida. O valor devolvido é acumulado, para que o JIT não
+     * elimine o trabalho.
+     */
+    interface Operacao {
+
+        long executa(int i);
+    }
+
+    private static final int LARGURA = 640;
+    private static final int ALTURA = 480;
+    /**
+     * Quadros gerados para cada combinação, repetidos em ciclo.
+     */
+    private static final int QUADROS_GERADOS = 256;
+    private static final int LOTE = 64;
+
+    private static final com.sun.management.ThreadMXBean MX;
+
+    static {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            MX = (com.sun.management.ThreadMXBean) bean;
+            MX.setThreadAllocatedMemoryEnabled(true);
+        } else
+            MX = null;
+    }
+
+    private static volatile long sumidouro;
+
+    private long tempoMedicao = 2000;
+    private long tempoAquecimento = 1000;
+    private String filtro = "";
+
+    /**
+     * Detecções geradas: [quadro][cascade] com 4 inteiros (x, y, largura,
+     * altura) por caixa.
+     */
+    static int[][][] geraDeteccoes(int quadros, int caixas, long semente) {
+        Random r = new Random(semente);
+        int[][][] d = new int[quadros][3][caixas * 4];
+        double x = LARGURA / 2, y = ALTURA / 2, vx = 3, vy = 2;
+        for (int q = 0; q < quadros; q++) {
+            x += vx;
+            y += vy;
+            if (x < 60 || x > LARGURA - 60)
+                vx = -vx;
+            if (y < 60 || y > ALTURA - 60)
+                vy = -vy;
+            int[] aglomerado = {r.nextInt(LARGURA), r.nextInt(ALTURA)};
+            for (int c = 0; c < 3; c++) {
+                int[] v = d[q][c];
+                //O objeto verdadeiro, com erro de alguns pixels
+                v[0] = (int) x - 40 + r.nextInt(7) - 3;
+                v[1] = (int) y - 40 + r.nextInt(7) - 3;
+                v[2] = 80 + r.nextInt(5) - 2;
+                v[3] = 80 + r.nextInt(5) - 2;
+                for (int k = 1; k < caixas; k++) {
+                    int lado = 24 + r.nextInt(80);
+                    boolean agrupado = r.nextInt(4) == 0;
+                    int cx = agrupado ? aglomerado[0] + r.nextInt(11) - 5 : r.nextInt(LARGURA);
+                    int cy = agrupado ? aglomerado[1] + r.nextInt(11) - 5 : r.nextInt(ALTURA);
+                    v[k * 4] = cx - lado / 2;
+                    v[k * 4 + 1] = cy - lado / 2;
+                    v[k * 4 + 2] = lado;
+                    v[k * 4 + 3] = lado;
+                }
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Mede uma operação: roda durante o aquecimento, depois em lotes até o
+     * tempo de medição, e imprime uma linha com o resultado.
+     */
+    void mede(String nome, Operacao op) {
+        if (!nome.contains(filtro))
+            return;
+        long acumulado = 0;
+        int i = 0;
+        long fim = System.nanoTime() + tempoAquecimento * 1000000;
+        while (System.nanoTime() < fim)
+            for (int k = 0; k < LOTE; k++)
+                acumulado += op.executa(i++);
+
+        long coletas = contaColetas(false);
+        long tempoColetas = contaColetas(true);
+        long bytes = bytesAlocados();
+        long operacoes = 0;
+        long inicio = System.nanoTime();
+        fim = inicio + tempoMedicao * 1000000;
+        long agora;
+        do {
+            for (int k = 0; k < LOTE; k++)
+                acumulado += op.executa(i++);
+            operacoes += LOTE;
+            agora = System.nanoTime();
+        } while (agora < fim);
+        bytes = bytesAlocados() - bytes;
+        coletas = contaColetas(false) - coletas;
+        tempoColetas = contaColetas(true) - tempoColetas;
+        sumidouro += acumulado;
+
+        double porSegundo = operacoes * 1e9 / (agora - inicio);
+        String alocacao = MX == null ? "n/d" : String.format("%.1f B/op", (double) bytes / operacoes);
+        System.out.println(String.format("%-40s %14.1f ops/s %8.2f us/op %14s gc=%d (%d ms)",
+                nome, porSegundo, 1e6 / porSegundo, alocacao, coletas, tempoColetas));
+    }
+
+    /**
+     * Fusão completa de um quadro: salva as detecções dos 3 cascades, com a
+     * supressão padrão, e avalia as amostras. Cobre a supressão,
+     * relateObjByCasc, findBestPosSample, averageTruePositives e
+     * mergeObjsAvarage.
+     */
+    void fusao(int caixas, int numFrames) {
+        int[][][] d = geraDeteccoes(QUADROS_GERADOS, caixas, caixas * 31 + numFrames);
+        EstruturaAmostras amostras = new EstruturaAmostras(numFrames);
+        int[] limites = new int[4];
+        mede(String.format("fusao caixas=%d frames=%d", caixas, numFrames), i -> {
+            int[][] q = d[i & (QUADROS_GERADOS - 1)];
+            amostras.saveObjs(q[0], caixas, ObjDetec.CascOrigin.Normal);
+            amostras.saveObjs(q[1], caixas, ObjDetec.CascOrigin.HSV);
+            amostras.saveObjs(q[2], caixas, ObjDetec.CascOrigin.InRange);
+            ObjDetec o = amostras.evaluateSamples();
+            amostras.trueSizeLimits(limites);
+            return o == null ? limites[0] : o.getCenter().x + o.getWidth() + limites[0];
+        });
+    }
+
+    /**
+     * Busca de referência, que compara todos os pares (e aloca), para
+     * comparar com a grade espacial da fusão.
+     */
+    void buscaCompleta(int caixas) {
+        int[][][] d = geraDeteccoes(QUADROS_GERADOS, caixas, caixas * 17);
+        ArmazemDeteccoes[] todos = new ArmazemDeteccoes[QUADROS_GERADOS];
+        for (int q = 0; q < QUADROS_GERADOS; q++) {
+            todos[q] = new ArmazemDeteccoes(caixas * 3);
+            for (int c = 0; c < 3; c++)
+                for (int k = 0; k < caixas * 4; k += 4)
+                    todos[q].add(d[q][c][k] + d[q][c][k + 2] / 2, d[q][c][k + 1] + d[q][c][k + 3] / 2,
+                            d[q][c][k + 2], d[q][c][k + 3], c + 1, false);
+        }
+        mede(String.format("busca completa caixas=%d", caixas),
+                i -> EstruturaAmostras.relateObjByCascBruteForce(todos[i & (QUADROS_GERADOS - 1)]).size());
+    }
+
+    /**
+     * Métodos de geometria do {@link ObjDetec}, entre pares de caixas
+     * geradas.
+     */
+    void geometria() {
+        int n = 1024;
+        int[][][] d = geraDeteccoes(1, n, 99);
+        ObjDetec[] a = new ObjDetec[n];
+        ObjDetec[] b = new ObjDetec[n];
+        for (int k = 0; k < n; k++) {
+            int[] v = d[0][0];
+            int[] w = d[0][1];
+            a[k] = new ObjDetec(new ObjDetec.Point(v[k * 4] + v[k * 4 + 2] / 2, v[k * 4 + 1] + v[k * 4 + 3] / 2),
+                    v[k * 4 + 3], v[k * 4 + 2], ObjDetec.CascOrigin.Normal);
+            b[k] = new ObjDetec(new ObjDetec.Point(w[k * 4] + w[k * 4 + 2] / 2, w[k * 4 + 1] + w[k * 4 + 3] / 2),
+                    w[k * 4 + 3], w[k * 4 + 2], ObjDetec.CascOrigin.HSV);
+        }
+        int mascara = n - 1;
+        mede("geometria isCenterInside", i -> a[i & mascara].isCenterInside(b[(i >> 3) & mascara], 0.5) ? 1 : 0);
+        mede("geometria distanceTo", i -> (long) a[i & mascara].distanceTo(b[(i >> 3) & mascara]));
+        mede("geometria compareDimen", i -> (long) (1000 * a[i & mascara].compareDimen(b[(i >> 3) & mascara])));
+        mede("geometria compareArea", i -> (long) (1000 * a[i & mascara].compareArea(b[(i >> 3) & mascara])));
+    }
+
+    private static long bytesAlocados() {
+        return MX == null ? 0 : MX.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long contaColetas(boolean tempo) {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            total += Math.max(0, tempo ? gc.getCollectionTime() : gc.getCollectionCount());
+        return total;
+    }
+
+    private static int[] lista(String s) {
+        String[] partes = s.split(",");
+        int[] v = new int[partes.length];
+        for (int i = 0; i < partes.length; i++)
+            v[i] = Integer.parseInt(partes[i].trim());
+        return v;
+    }
+
+    public static void main(String[] args) {
+        BenchmarkFusao b = new BenchmarkFusao();
+        int[] caixas = {1, 10, 100, 500};
+        int[] frames = {3, 30, 300};
+        for (int i = 0; i + 1 < args.length; i += 2)
+            switch (args[i]) {
+                case "-caixas":
+                    caixas = lista(args[i + 1]);
+                    break;
+                case "-frames":
+                    frames = lista(args[i + 1]);
+                    break;
+                case "-tempo":
+                    b.tempoMedicao = Long.parseLong(args[i + 1]);
+                    b.tempoAquecimento = Math.max(200, b.tempoMedicao / 2);
+                    break;
+                case "-filtro":
+                    b.filtro = args[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Opção desconhecida: " + args[i]);
+            }
+
+        boolean assertions = false;
+        assert assertions = true;
+        if (assertions)
+            System.err.println("Aviso: assertions ligadas, a fusão também roda a busca completa.");
+
+        for (int c : caixas)
+            for (int f : frames)
+                b.fusao(c, f);
+        for (int c : caixas)
+            b.buscaCompleta(c);
+        b.geometria();
+    }
+}
@@ -1,33 +1,28 @@
 
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfRect;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
 import org.opencv.videoio.VideoCapture;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
-import java.awt.image.WritableRaster;
-
-import javax.swing.ImageIcon;
-import javax.swing.JFrame;
-import javax.swing.JLabel;
-import java.awt.BorderLayout;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class CamDetect{
 
-    private JFrame frame;
     private VideoCapture cap;
-    private JLabel label;
+    private final ArrayList<SaidaQuadros> saidasQuadro = new ArrayList<>();
+    private final ArrayList<SaidaDeteccoes> saidasDeteccao = new ArrayList<>();
 
-    private CascadeClassifier normalCascade;
-    private CascadeClassifier hsvCascade;
-    private CascadeClassifier inRangeCascade;
+    private DetectorCascades detector;
+    private CompletableFuture<DetectorCascades> carregamento;
+    private EscalonadorCascades escalonador;
     
     private EstruturaAmostras amostras;
 
@@ -36,85 +31,476 @@ public class CamDetect{
     private String XML_hsv = "21H.xml";
     private String XML_inRange = "20In.xml";
     
-    private final int IMG_SCALE = 1;
+    private final double IMG_SCALE = 1;
 	private final int NUM_FRAMES = 5;
+    private final boolean DETECCAO_PARALELA = true; //Roda os 3 cascades ao mesmo tempo
+    private final boolean MODO_PIPELINE = true; //Separa captura, tratamento, detecção, fusão e exibição em threads
+    private final int TAMANHO_FILA = 2;
+    private final FilaCircular.Politica POLITICA_FILA = FilaCircular.Politica.DescartarAntigo;
+    private final long INTERVALO_RELATORIO = 5000; //ms entre os relatórios do pipeline
+    private final long ESPERA_CAPTURA = 10; //ms de espera depois de uma leitura sem quadro, dobrada a cada falha seguida
+    private final long ESPERA_MAXIMA_CAPTURA = 1000; //ms máximos de espera entre duas leituras sem quadro
+    private final int FALHAS_CAPTURA = 20; //Leituras seguidas sem quadro antes de encerrar o programa
+    
+    private final int AQUECIMENTO = 30; //Quadros antes de conferir se o laço está alocando
+    private final boolean RASTREIO_ROI = true; //Procura só em volta do último objeto confirmado
+    private final double MARGEM_ROI = 0.5; //Fração do tamanho do objeto somada em cada lado da janela
+    private final int VARREDURA_COMPLETA = 15; //Quadros entre varreduras do quadro inteiro
+    private final boolean ESCALA_ADAPTATIVA = true; //Limita os tamanhos procurados pelos já confirmados
+    private final double ESCALA_DETECCAO = 1; //Escala da imagem de detecção sem objeto confirmado
+    private final int JANELA_CASCADE = 24; //Lado da janela de treino dos cascades
+    private final double FOLGA_TAMANHO = 0.3; //Variação de tamanho aceita em relação aos já vistos
+    private final boolean PREDICAO = true; //Prevê o objeto nos quadros sem detecção
+    private final int INTERVALO_DETECCAO = 3; //Quadros entre detecções enquanto o objeto é previsto
+    private final double INCERTEZA_MAXIMA = 0.25; //Desvio da previsão, em fração do objeto, que força a detecção
+    private final double FPS_GRAVACAO = 30; //Quadros por segundo do vídeo gravado com -video
+    private final boolean CONSENSO_ANTECIPADO = false; //Pula o terceiro cascade quando os dois primeiros concordam (troca a detecção paralela pela sequencial)
+    private final int AUDITORIA_CONSENSO = 20; //Consensos entre as conferências do cascade pulado
+    private final boolean KERNEL_HSV = false; //Gera o HSV e a máscara do InRange em uma passada só
+    private final boolean MULTIPLOS_ALVOS = false; //Rastreia todos os objetos confirmados, cada um com um identificador
+    private final double IOU_ALVOS = 0.3; //Sobreposição mínima para associar um objeto a uma trilha
+    private final int CONFIRMACAO_ALVOS = 3; //Quadros seguidos para confirmar uma trilha nova
+    private final boolean FILTRO_MOVIMENTO = true; //Pula a detecção nos quadros sem mudança e limita a busca às regiões que mudaram
+    private final int LARGURA_MOVIMENTO = 80; //Largura da imagem reduzida comparada entre os quadros
+    private final int BLOCO_MOVIMENTO = 8; //Lado dos blocos do mapa de mudança, em pixels da imagem reduzida
+    private final double LIMIAR_MOVIMENTO = 8; //Diferença média por pixel (0 a 255) para um bloco ter mudado
+    private final int VARREDURA_MOVIMENTO = 30; //Quadros entre varreduras do quadro inteiro mesmo sem mudança
+    private final boolean GOVERNADOR = true; //Reduz a qualidade da detecção quando o fps ou a latência saem da meta
+    private final double FPS_ALVO = 15; //Quadros por segundo que o governador tenta manter
+    private final double ORCAMENTO_LATENCIA = 150; //ms da captura à entrega aceitos pelo governador
+    private final int JANELA_GOVERNADOR = 30; //Quadros entregues entre as decisões do governador
+    private final int TAMANHO_CANAL = 256; //Eventos guardados para os leitores do canal de detecções
+    
+    private PipelineDeteccao pipeline;
+    private PoolQuadros pool;
+    private Thread laco;
+    private volatile boolean rodando = true;
+    private VerificadorAlocacao verificador;
+    private RastreadorROI rastreador;
+    private EscalaAdaptativa escala;
+    private PreditorMovimento preditor;
+    private FiltroMovimento movimento;
+    private GovernadorQuadros governador;
+    private CanalDeteccoes eventos;
+    private RastreadorMultiplo alvos;
+    private long numQuadro = 0;
+    private long ultimoFundido = -1;
+    private int falhasCaptura;
     
-    CamDetect() {
+    //Objetos reusados a cada quadro, para não alocar no laço
+    private final Size tamanhoEscala = new Size();
+    private final Point cantoSup = new Point();
+    private final Point cantoInf = new Point();
+    private final ObjDetec alvo = new ObjDetec();
+    /**
+     * Último resultado da fusão, repetido nos quadros sem detecção quando não
+     * há {@link PreditorMovimento}.
+     */
+    private final ObjDetec ultimoResultado = new ObjDetec();
+    private boolean temUltimoResultado;
+    private static final Scalar COR_RESULTADO = new Scalar(0, 255, 255);
+    private static final Scalar COR_ALVO = new Scalar(255, 0, 255);
+    
+    /**
+     * @param args Opções da linha de comando (ver {@link #main(String[])}).
+     * @throws IOException Se não for possivel criar o registro de detecções,
+     * ou se algum cascade não foi encontrado.
+     */
+    CamDetect(String[] args) throws IOException {
         init();
+        configuraSaidas(args);
+        aguardaDetector();
         thread();
     }
 
-    public static void main(String[] args) {
-        new CamDetect();
+    /**
+     * Cria as saídas pedidas na linha de comando. Precisa da biblioteca do
+     * OpenCV já carregada.
+     *
+     * @param args Opções da linha de comando.
+     * @throws IOException Se não for possivel criar o registro de detecções
+     * ou a gravação.
+     */
+    private void configuraSaidas(String[] args) throws IOException {
+        boolean janela = true;
+        for (int i = 0; i < args.length; i++)
+            switch (args[i]) {
+                case "-sem-janela":
+                    janela = false;
+                    break;
+                case "-video":
+                    saidasQuadro.add(new GravadorVideo(parametro(args, ++i), FPS_GRAVACAO));
+                    break;
+                case "-imagens":
+                    saidasQuadro.add(new SequenciaImagens(parametro(args, ++i)));
+                    break;
+                case "-log":
+                    saidasDeteccao.add(new RegistroDeteccoes(parametro(args, ++i)));
+                    break;
+                case "-gravar":
+                    saidasDeteccao.add(new GravadorAmostras(parametro(args, ++i)));
+                    break;
+                case "-eventos":
+                    eventos.inicia("eventos", CanalDeteccoes.Espera.Bloquear, System.out::println);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Opção desconhecida: " + args[i]);
+            }
+        if (janela)
+            saidasQuadro.add(new JanelaExibicao("NRL - Nucleo Robotica Leopoldina", this::encerra));
+        else
+            Runtime.getRuntime().addShutdownHook(new Thread(this::encerra)); //Ctrl+C no modo sem janela
+    }
+
+    /**
+     * Opções:
+     * <ul>
+     * <li>{@code -sem-janela}: não abre a janela (roda até ser interrompido);</li>
+     * <li>{@code -video arquivo}: grava os quadros anotados em um vídeo;</li>
+     * <li>{@code -imagens padrao}: salva cada quadro anotado em uma imagem,
+     * com o nome gerado pelo padrão e o indice (ex.: {@code q%06d.png});</li>
+     * <li>{@code -log arquivo}: registra o resultado de cada quadro em CSV;</li>
+     * <li>{@code -gravar arquivo}: grava as saídas dos cascades para
+     * repetir a fusão com {@link ReproducaoAmostras};</li>
+     * <li>{@code -eventos}: imprime os eventos do
+     * {@linkplain #getEventos() canal de detecções}, lidos em outro
+     * thread.</li>
+     * </ul>
+     */
+    public static void main(String[] args) throws IOException {
+        new CamDetect(args);
+    }
+
+    private static String parametro(String[] args, int i) {
+        if (i >= args.length)
+            throw new IllegalArgumentException("Falta o valor de " + args[i - 1]);
+        return args[i];
     }
 
     public void thread() {
-        new Thread() {
+        if (MODO_PIPELINE) {
+            //Cada etapa roda no seu thread, ligadas por filas de tamanho fixo
+            pipeline = new PipelineDeteccao(TAMANHO_FILA, POLITICA_FILA);
+            pipeline.adicionaEstagio("captura", q -> captura(q));
+            pipeline.adicionaEstagio("tratamento", q -> {
+                detector.preprocessa(q);
+                return true;
+            });
+            pipeline.adicionaEstagio("deteccao", q -> {
+                detector.detectaPreprocessado(q);
+                return true;
+            });
+            pipeline.adicionaEstagio("fusao", q -> funde(q));
+            pipeline.adicionaEstagio("exibicao", q -> exibe(q));
+            pipeline.inicia(0);
+            //A exibição fica fora da conta, pois os rótulos dos alvos alocam (com -log, a fusão também aloca)
+            ArrayList<EstagioPipeline> estagios = pipeline.getEstagios();
+            for (int i = 0; i < estagios.size() - 1; i++)
+                verificador.registra(estagios.get(i).getThread());
+            iniciaRelatorio();
+            return;
+        }
+
+        pool = new PoolQuadros(1);
+        laco = new Thread() {
             @Override
             public void run() {
-                Mat normal = new Mat();
-                Mat inRange = new Mat();
-                Mat hsv = new Mat();
-                while (frame.isEnabled()) {
-                    cap.read(normal);
-                    
-                    Imgproc.resize(normal, normal, new Size(normal.cols()*IMG_SCALE,normal.rows()*IMG_SCALE));           
-                    
-                    inRange = normal.clone();
-                    hsv = normal.clone();                    
-                    
-                    //Faz o tratamento na imagem para usar o cascade com InRange e HSV
-                    Imgproc.cvtColor(normal, hsv, Imgproc.COLOR_BGR2HSV); //HSV
-                    //InRange Parte ----------------------------------------------------------
-                    Mat im1 = new Mat();
-                    Mat im2 = new Mat();
-                    Core.inRange(hsv, new Scalar(0,80,30), new Scalar(13,230,255), im1);
-                    Core.inRange(hsv, new Scalar(170,80,30), new Scalar(255,230,255), im2);
-                    Core.bitwise_or(im1, im2, inRange);
-                    //------------------------------------------------------------------------
-                    
-                    MatOfRect detectionsNormal = new MatOfRect();
-                    MatOfRect detectionsHSV = new MatOfRect();
-                    MatOfRect detectionsInRange = new MatOfRect();
-                    
-                    normalCascade.detectMultiScale(normal, detectionsNormal);
-                    hsvCascade.detectMultiScale(hsv, detectionsHSV);                    
-                    inRangeCascade.detectMultiScale(inRange, detectionsInRange);
-                    
-                    amostras.saveObjs(detectionsNormal, ObjDetec.CascOrigin.Normal); //Salva as amostras Normais
-                    amostras.saveObjs(detectionsInRange, ObjDetec.CascOrigin.InRange); //Salva as amostras InRange
-                    amostras.saveObjs(detectionsHSV, ObjDetec.CascOrigin.HSV); //Salva as amostras HSV
-                    
-                    ObjDetec o = amostras.evaluateSamples(); //Encontra a amostra positiva verdadeira
-                    if(o!=null){
-                        Rect r = o.toRect();
-                        Imgproc.rectangle(normal, new Point(r.x, r.y),
-                            new Point(r.x + r.width, r.y + r.height), new Scalar(0, 255, 255), 2);
-                    }
+                Quadro quadro;
+                try {
+                    quadro = pool.obtem();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                while (rodando) {
+                    if (!captura(quadro))
+                        continue;
                     
-                    /*
-                    for (Rect rect : detectionsNormal.toArray()) {
-                        Imgproc.rectangle(normal, new Point(rect.x, rect.y), new Point(rect.x
-                                + rect.width, rect.y + rect.height), new Scalar(255, 0, 0), 2);
-                    }
-                    for (Rect rect : detectionsHSV.toArray()) {
-                        Imgproc.rectangle(normal, new Point(rect.x, rect.y), new Point(rect.x
-                                + rect.width, rect.y + rect.height), new Scalar(0, 255, 0), 2);
-                    }
+                    //Faz o tratamento na imagem e a detecção dos 3 cascades (HSV, InRange e Normal)
+                    detector.detecta(quadro);
                     
-                    for (Rect rect : detectionsInRange.toArray()) {
-                        Imgproc.rectangle(normal, new Point(rect.x, rect.y), new Point(rect.x
-                                + rect.width, rect.y + rect.height), new Scalar(0, 0, 255), 2);
+                    funde(quadro);
+                    exibe(quadro);
+                }
+            }
+        };
+        verificador.registra(laco);
+        laco.start();
+        iniciaRelatorio();
+    }
+
+    /**
+     * Imprime periodicamente o relatório do pipeline e das alocações.
+     */
+    private void iniciaRelatorio() {
+        if (INTERVALO_RELATORIO <= 0)
+            return;
+        Thread monitor = new Thread("relatorio") {
+            @Override
+            public void run() {
+                try {
+                    while (rodando) {
+                        Thread.sleep(INTERVALO_RELATORIO);
+                        if (pipeline != null)
+                            System.out.println(pipeline.relatorio());
+                        System.out.println(Metricas.relatorio());
+                        if (escalonador != null)
+                            System.out.println(escalonador.relatorio());
+                        if (movimento != null)
+                            System.out.println(movimento.relatorio());
+                        String alocacao = verificador.relatorio();
+                        if (alocacao != null)
+                            System.out.println(alocacao);
                     }
-                    */
-					
-                    
-                    ImageIcon image = new ImageIcon(createAwtImage(normal)); //Converte Mat para ImageIcon
-                    frame.setSize(image.getIconWidth(), image.getIconHeight()); //Configura o tamanho da janela como tamanho da imagem
-                    label.setIcon(image); //Mostra a imagem
+                } catch (InterruptedException ex) {
+                    //Programa encerrado
                 }
             }
-        }.start();
+        };
+        monitor.setDaemon(true);
+        monitor.start();
+    }
+
+    /**
+     * Para o processamento e libera a memória nativa dos quadros, da
+     * detecção e da câmera.
+     */
+    private synchronized void encerra() {
+        if (!rodando)
+            return;
+        rodando = false;
+        if (pipeline != null)
+            pipeline.release();
+        if (laco != null) {
+            try {
+                laco.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            pool.release();
+        }
+        if (detector != null)
+            detector.close();
+        if (movimento != null)
+            movimento.release();
+        cap.release();
+        for (SaidaQuadros s : saidasQuadro)
+            s.close();
+        for (SaidaDeteccoes s : saidasDeteccao)
+            s.close();
+    }
+
+    /**
+     * Lê um quadro da câmera e aplica a escala.
+     *
+     * @param quadro Quadro onde a imagem é salva.
+     * @return Falso se não foi possivel ler da câmera.
+     */
+    private boolean captura(Quadro quadro) {
+        if (!rodando)
+            return false;
+        Mat normal = quadro.getNormal();
+        long inicio = System.nanoTime();
+        if (IMG_SCALE == 1) {
+            if (!cap.read(normal))
+                return falhaCaptura();
+            Metricas.CAPTURA.registraDesde(inicio);
+        } else {
+            //Lê em outra matriz para o resize não realocar a imagem normal
+            Mat bruto = quadro.getCaptura();
+            if (!cap.read(bruto))
+                return falhaCaptura();
+            Metricas.CAPTURA.registraDesde(inicio);
+            inicio = System.nanoTime();
+            tamanhoEscala.width = bruto.cols()*IMG_SCALE;
+            tamanhoEscala.height = bruto.rows()*IMG_SCALE;
+            Imgproc.resize(bruto, normal, tamanhoEscala);
+            Metricas.ESCALA.registraDesde(inicio);
+        }
+        falhasCaptura = 0;
+        quadro.setIndice(numQuadro++);
+        quadro.setTempoCaptura(System.nanoTime());
+
+        quadro.getPlano().limpa();
+        if (preditor != null)
+            preditor.planeja(quadro); //Decide se os cascades rodam neste quadro
+        if (!quadro.getPlano().isDetectar())
+            return true;
+        if (movimento != null)
+            movimento.planeja(quadro); //Pula o quadro sem mudança, ou limita a busca ao que mudou
+        if (!quadro.getPlano().isDetectar())
+            return true;
+        if (rastreador != null)
+            rastreador.planeja(quadro); //Define a região de busca, ou junta a janela do objeto à região do movimento
+        if (escala != null)
+            escala.planeja(quadro); //Define a escala e os tamanhos procurados
+        if (governador != null)
+            governador.planeja(quadro); //Aplica as reduções do nível atual
+        return true;
+    }
+
+    /**
+     * Espera antes da próxima leitura quando a câmera não devolve um quadro,
+     * para que o laço de captura não ocupe o processador. A espera dobra a
+     * cada falha seguida, até {@link #ESPERA_MAXIMA_CAPTURA}, e depois de
+     * {@link #FALHAS_CAPTURA} falhas seguidas o programa é encerrado.
+     *
+     * @return Sempre falso.
+     */
+    private boolean falhaCaptura() {
+        if (++falhasCaptura == FALHAS_CAPTURA) {
+            System.err.println("A câmera não devolveu quadros em " + FALHAS_CAPTURA + " leituras seguidas. Encerrando.");
+            new Thread(this::encerra, "encerramento").start(); //O encerramento espera o thread da captura terminar
+        }
+        try {
+            Thread.sleep(Math.min(ESPERA_MAXIMA_CAPTURA, ESPERA_CAPTURA << Math.min(falhasCaptura - 1, 16)));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt(); //O estágio ou o laço termina ao ver a interrupção
+        }
+        return false;
+    }
+
+    /**
+     * Salva as detecções do quadro e encontra a amostra positiva verdadeira.
+     * Nos quadros sem detecção, o resultado é a previsão do
+     * {@link PreditorMovimento}, ou o último resultado se a cena não mudou
+     * ({@link FiltroMovimento}) ou se não há preditor. Os quadros precisam chegar em ordem, pois a
+     * {@link EstruturaAmostras} e o preditor guardam os ultimos quadros.
+     *
+     * @param quadro Quadro já detectado.
+     * @return Sempre verdadeiro.
+     */
+    private boolean funde(Quadro quadro) {
+        assert quadro.getIndice() > ultimoFundido : "Quadro fora de ordem na fusão";
+        ultimoFundido = quadro.getIndice();
+        if (movimento != null)
+            movimento.confirma(quadro); //Atualiza a referência só do que foi varrido, e só com quadros que chegaram aqui
+
+        if (!quadro.getPlano().isDetectar()) {
+            if (preditor != null)
+                preditor.avanca(quadro.getIndice()); //Um quadro planejado com detecção e descartado fica para trás
+            EventoDeteccao.Estado estado = EventoDeteccao.Estado.Repetido;
+            if (quadro.getPlano().isSemMudanca())
+                quadro.setResultado(movimento.getUltimoResultado()); //Repete a última fusão
+            else if (preditor != null) {
+                quadro.setResultado(preditor.prediz(quadro.getIndice())); //Preenche com a previsão
+                estado = EventoDeteccao.Estado.Previsto;
+            } else
+                quadro.setResultado(temUltimoResultado ? ultimoResultado : null);
+            publica(quadro, estado);
+            if (alvos != null)
+                alvos.exporta(quadro); //Mantém as trilhas do último quadro detectado
+            verificador.confere(quadro);
+            return true;
+        }
+
+        amostras.saveAllObjs(quadro.getDetNormal(), quadro.getDetHSV(), quadro.getDetInRange()); //Salva as amostras dos 3 cascades
+        if (escalonador != null && quadro.getAuditoria() != ObjDetec.CascOrigin.Indef)
+            escalonador.registraAuditoria(!amostras.sameResultWithout(quadro.getAuditoria()));
+
+        long inicio = System.nanoTime();
+        quadro.setResultado(amostras.evaluateSamples()); //Encontra a amostra positiva verdadeira
+        Metricas.FUSAO.registraDesde(inicio);
+        temUltimoResultado = quadro.getResultado() != null;
+        if (temUltimoResultado)
+            ultimoResultado.set(quadro.getResultado());
+        publica(quadro, EventoDeteccao.Estado.Detectado);
+        if (rastreador != null)
+            rastreador.atualiza(quadro.getResultado(), quadro.getIndice());
+        if (escala != null)
+            escala.atualiza(amostras);
+        if (preditor != null)
+            preditor.atualiza(quadro.getResultado(), quadro.getIndice());
+        if (movimento != null)
+            movimento.atualiza(quadro.getResultado());
+        if (alvos != null) {
+            alvos.atualiza(amostras.getCandidates());
+            alvos.exporta(quadro);
+        }
+        verificador.confere(quadro);
+        return true;
+    }
+
+    /**
+     * Publica o resultado do quadro no canal de detecções e o entrega às
+     * saídas de detecções, logo depois da fusão. As saídas rodam aqui, e não
+     * na exibição, porque a fila antes da exibição pode descartar quadros, e
+     * elas recebem todos os quadros fundidos.
+     */
+    private void publica(Quadro quadro, EventoDeteccao.Estado estado) {
+        ObjDetec o = quadro.getResultado();
+        eventos.publica(quadro.getIndice(), quadro.getTempoCaptura(), o, o == null ? EventoDeteccao.Estado.Perdido : estado);
+        for (int i = 0; i < saidasDeteccao.size(); i++)
+            saidasDeteccao.get(i).escreve(quadro);
+    }
+
+    /**
+     * Canal com o resultado de cada quadro, para quem controla o robô. Os
+     * leitores devem ser criados com {@link CanalDeteccoes#leitor(CanalDeteccoes.Espera)}
+     * ou {@link CanalDeteccoes#inicia(String, CanalDeteccoes.Espera, java.util.function.Consumer)}
+     * e rodam nos seus próprios threads.
+     *
+     * @return O canal de detecções.
+     */
+    public CanalDeteccoes getEventos() {
+        return eventos;
+    }
+
+    /**
+     * Se existe alguma saída de quadros, desenha o resultado no quadro e o
+     * entrega a elas. Sem saída de quadros, o desenho é pulado.
+     *
+     * @param quadro Quadro já processado.
+     * @return Sempre verdadeiro.
+     */
+    private boolean exibe(Quadro quadro) {
+        if (saidasQuadro.isEmpty()) {
+            if (governador != null)
+                governador.registra(quadro);
+            Metricas.quadroEntregue(quadro);
+            return true;
+        }
+
+        Mat normal = quadro.getNormal();
+        ObjDetec o = quadro.getResultado();
+        if(o!=null){
+            cantoSup.x = o.getCenter().x - o.getWidth() / 2;
+            cantoSup.y = o.getCenter().y - o.getHeight() / 2;
+            cantoInf.x = cantoSup.x + o.getWidth();
+            cantoInf.y = cantoSup.y + o.getHeight();
+            Imgproc.rectangle(normal, cantoSup, cantoInf, COR_RESULTADO, 2);
+        }
+        for (int i = 0; i < quadro.getNumAlvos(); i++) {
+            ObjDetec a = quadro.getAlvo(i, alvo);
+            cantoSup.x = a.getCenter().x - a.getWidth() / 2;
+            cantoSup.y = a.getCenter().y - a.getHeight() / 2;
+            cantoInf.x = cantoSup.x + a.getWidth();
+            cantoInf.y = cantoSup.y + a.getHeight();
+            Imgproc.rectangle(normal, cantoSup, cantoInf, COR_ALVO, 1);
+            Imgproc.putText(normal, Integer.toString(quadro.getIdAlvo(i)), cantoSup, Core.FONT_HERSHEY_SIMPLEX, 0.5, COR_ALVO);
+        }
+        
+        /*
+        for (Rect rect : quadro.getDetNormal().toArray()) {
+            Imgproc.rectangle(normal, new Point(rect.x, rect.y), new Point(rect.x
+                    + rect.width, rect.y + rect.height), new Scalar(255, 0, 0), 2);
+        }
+        for (Rect rect : quadro.getDetHSV().toArray()) {
+            Imgproc.rectangle(normal, new Point(rect.x, rect.y), new Point(rect.x
+                    + rect.width, rect.y + rect.height), new Scalar(0, 255, 0), 2);
+        }
+        
+        for (Rect rect : quadro.getDetInRange().toArray()) {
+            Imgproc.rectangle(normal, new Point(rect.x, rect.y), new Point(rect.x
+                    + rect.width, rect.y + rect.height), new Scalar(0, 0, 255), 2);
+        }
+        */
+        
+        for (int i = 0; i < saidasQuadro.size(); i++)
+            saidasQuadro.get(i).escreve(quadro, normal);
+        if (governador != null)
+            governador.registra(quadro);
+        Metricas.quadroEntregue(quadro);
+        return true;
     }
     
     private void init() {
@@ -135,45 +521,72 @@ public class CamDetect{
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
         //System.loadLibrary("opencv_ffmpeg320_64"); //Biblioteca para leitura de video
 
-        frame = new JFrame("NRL - Nucleo Robotica Leopoldina");
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-
-        frame.setResizable(true);
-        frame.setLocationRelativeTo(null);
-
-        label = new JLabel("");
-        frame.getContentPane().add(label, BorderLayout.CENTER);
-
-        frame.validate();
-        frame.setVisible(true);
+        //Os cascades carregam enquanto a câmera e a janela abrem
+        carregamento = CompletableFuture.supplyAsync(this::carregaDetector);
 
         cap = new VideoCapture();
         cap.open(CAMERA_ID);
         //cap.open("http://192.168.0.103:8080/video"); 
 
-        normalCascade = new CascadeClassifier(getClass().getResource("/" + XML_normal).getPath().substring(1));
-        hsvCascade = new CascadeClassifier(getClass().getResource("/" + XML_hsv).getPath().substring(1));
-        inRangeCascade = new CascadeClassifier(getClass().getResource("/" + XML_inRange).getPath().substring(1));
+        verificador = new VerificadorAlocacao(AQUECIMENTO);
+        Metricas.registraMBeans();
 
         amostras = new EstruturaAmostras(NUM_FRAMES);
+        eventos = new CanalDeteccoes(TAMANHO_CANAL);
+        if (RASTREIO_ROI)
+            rastreador = new RastreadorROI(MARGEM_ROI, VARREDURA_COMPLETA);
+        if (ESCALA_ADAPTATIVA)
+            escala = new EscalaAdaptativa(ESCALA_DETECCAO, JANELA_CASCADE, FOLGA_TAMANHO);
+        if (PREDICAO)
+            preditor = new PreditorMovimento(INTERVALO_DETECCAO, INCERTEZA_MAXIMA);
+        if (GOVERNADOR)
+            governador = new GovernadorQuadros(FPS_ALVO, ORCAMENTO_LATENCIA, JANELA_GOVERNADOR);
+        if (FILTRO_MOVIMENTO)
+            movimento = new FiltroMovimento(LARGURA_MOVIMENTO, BLOCO_MOVIMENTO, LIMIAR_MOVIMENTO, VARREDURA_MOVIMENTO);
+        if (MULTIPLOS_ALVOS)
+            alvos = new RastreadorMultiplo(IOU_ALVOS, CONFIRMACAO_ALVOS, NUM_FRAMES);
     }
 
-    private static BufferedImage createAwtImage(Mat mat) { //Método para transformar Mat em ImageIcon
-        int type = 0;
-        if (mat.channels() == 1){
-            type = BufferedImage.TYPE_BYTE_GRAY;
-        } else if (mat.channels() == 3) {
-            type = BufferedImage.TYPE_3BYTE_BGR;
-        } else {
-            return null;
+    /**
+     * Encontra os XMLs e carrega o detector. Roda fora do thread principal.
+     */
+    private DetectorCascades carregaDetector() {
+        long inicio = System.nanoTime();
+        DetectorCascades d;
+        try {
+            d = new DetectorCascades(LocalizadorCascades.resolve(XML_normal), LocalizadorCascades.resolve(XML_hsv),
+                    LocalizadorCascades.resolve(XML_inRange), DETECCAO_PARALELA && !CONSENSO_ANTECIPADO);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
         }
+        System.out.println(String.format("Cascades carregados em %.0f ms", (System.nanoTime() - inicio) / 1e6));
+        return d;
+    }
 
-        BufferedImage image = new BufferedImage(mat.width(), mat.height(), type);
-        WritableRaster raster = image.getRaster();
-        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
-        byte[] data = dataBuffer.getData();
-        mat.get(0, 0, data);
-
-        return image;
+    /**
+     * Espera o detector carregado em {@link #init()} e termina a sua
+     * configuração.
+     *
+     * @throws IOException Se algum XML não foi encontrado.
+     */
+    private void aguardaDetector() throws IOException {
+        try {
+            detector = carregamento.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException)
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw ex;
+        }
+        detector.setConversor(new ConversorHsv(KERNEL_HSV, ConversorHsv.MIN_1, ConversorHsv.MAX_1,
+                ConversorHsv.MIN_2, ConversorHsv.MAX_2));
+        if (CONSENSO_ANTECIPADO) {
+            escalonador = new EscalonadorCascades(AUDITORIA_CONSENSO);
+            detector.setEscalonador(escalonador);
+            escalonador.registraMBean();
+        }
+        for (Thread t : detector.getThreads())
+            verificador.registra(t);
     }
 }
@@ -0,0 +1,296 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Canal de eventos de detecção com um publicador e vários
+ * {@linkplain Leitor leitores}, para que quem controla o robô receba o
+ * resultado da fusão assim que ele existe, e não só o retângulo desenhado.
+ * <p>
+ * Os eventos ficam em um vetor circular pré-alocado de
+ * {@link #capacidade} posições. Publicar só escreve os campos na posição e
+ * avança o cursor: não aloca e nunca espera pelos leitores. Um leitor que
+ * fica mais de {@link #capacidade} eventos atrás perde os mais antigos, e a
+ * perda é contada em {@link Leitor#getPerdidos()}.
+ * <p>
+ * Cada posição guarda, além dos campos, a sequência do evento que está nela.
+ * O publicador marca a posição como em escrita, escreve os campos e grava a
+ * sequência nova; o leitor confere a sequência antes e depois de copiar os
+ * campos, e descarta a cópia se a posição foi reescrita no meio.
+ * <p>
+ * Cada leitor escolhe como esperar pelo próximo evento ({@link Espera}).
+ */
+public class CanalDeteccoes {
+
+    /**
+     * Como um leitor espera quando não há evento novo.
+     */
+    public enum Espera {
+        /**
+         * Fica testando o cursor sem parar. Menor latência, mas ocupa um
+         * núcleo.
+         */
+        Ocupada,
+        /**
+         * Testa o cursor e cede o processador ({@link Thread#yield()}) entre
+         * os testes.
+         */
+        Ceder,
+        /**
+         * Dorme até o publicador acordá-lo. Não gasta processador, mas a
+         * latência inclui a troca de thread.
+         */
+        Bloquear
+    }
+
+    /**
+     * Campos de cada posição no vetor.
+     */
+    private static final int CAMPOS = 6;
+    private static final int SEQUENCIA = 0, INDICE = 1, TEMPO = 2, CENTRO = 3, TAMANHO = 4, ESTADO = 5;
+    /**
+     * Valor da sequência enquanto a posição é escrita.
+     */
+    private static final long EM_ESCRITA = -1;
+    /**
+     * Tempo máximo que um leitor bloqueado dorme antes de testar o cursor de
+     * novo, mesmo sem ser acordado.
+     */
+    private static final long ESPERA_MAXIMA = 10000000L;
+
+    private final int capacidade;
+    private final int mascara;
+    private final AtomicLongArray posicoes;
+    /**
+     * Sequência do último evento publicado, ou -1.
+     */
+    private final AtomicLong cursor = new AtomicLong(-1);
+    /**
+     * Só o publicador escreve.
+     */
+    private long proxima;
+    /**
+     * Leitores com {@link Espera#Bloquear}, trocado inteiro a cada registro
+     * para que o publicador percorra sem travar.
+     */
+    private volatile Leitor[] bloqueantes = new Leitor[0];
+
+    /**
+     * @param capacidade Numero de eventos guardados, arredondado para uma
+     * potência de 2.
+     */
+    public CanalDeteccoes(int capacidade) {
+        int c = Integer.highestOneBit(Math.max(2, capacidade) - 1) << 1;
+        this.capacidade = c;
+        this.mascara = c - 1;
+        posicoes = new AtomicLongArray(c * CAMPOS);
+        for (int i = 0; i < c; i++)
+            posicoes.set(i * CAMPOS + SEQUENCIA, EM_ESCRITA);
+    }
+
+    public int getCapacidade() {
+        return capacidade;
+    }
+
+    /**
+     * @return Sequência do último evento publicado, ou -1 se nenhum foi.
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    /**
+     * Publica o resultado de um quadro. Deve ser chamado sempre pelo mesmo
+     * thread. Não aloca e não espera pelos leitores.
+     *
+     * @param indice Indice do quadro.
+     * @param tempoCaptura Momento da captura ({@link System#nanoTime()}).
+     * @param o Resultado do quadro, ou null.
+     * @param estado De onde veio o resultado. É
+     * {@linkplain EventoDeteccao.Estado#Perdido Perdido} quando o é null.
+     */
+    public void publica(long indice, long tempoCaptura, ObjDetec o, EventoDeteccao.Estado estado) {
+        long seq = proxima++;
+        int base = (int) (seq & mascara) * CAMPOS;
+        posicoes.lazySet(base + SEQUENCIA, EM_ESCRITA);
+        posicoes.lazySet(base + INDICE, indice);
+        posicoes.lazySet(base + TEMPO, tempoCaptura);
+        if (o == null) {
+            posicoes.lazySet(base + CENTRO, 0);
+            posicoes.lazySet(base + TAMANHO, 0);
+            posicoes.lazySet(base + ESTADO, EventoDeteccao.Estado.Perdido.ordinal());
+        } else {
+            posicoes.lazySet(base + CENTRO, junta(o.getCenter().x, o.getCenter().y));
+            posicoes.lazySet(base + TAMANHO, junta(o.getWidth(), o.getHeight()));
+            posicoes.lazySet(base + ESTADO, estado.ordinal() | (o.isExact() ? 1 << 8 : 0));
+        }
+        posicoes.lazySet(base + SEQUENCIA, seq);
+        //Escrita completa: um leitor que marcou que vai dormir depois disso já vê o evento
+        cursor.set(seq);
+
+        for (Leitor l : bloqueantes)
+            if (l.dormindo)
+                LockSupport.unpark(l.thread);
+    }
+
+    private static long junta(int a, int b) {
+        return ((long) a << 32) | (b & 0xffffffffL);
+    }
+
+    /**
+     * Cria um leitor que começa no próximo evento publicado. O leitor deve
+     * ser usado sempre pelo mesmo thread.
+     *
+     * @param espera Como o leitor espera por eventos.
+     * @return Leitor novo.
+     */
+    public Leitor leitor(Espera espera) {
+        return new Leitor(espera, cursor.get() + 1);
+    }
+
+    /**
+     * Inicia um thread que entrega cada evento a um consumidor, até ser
+     * interrompido.
+     *
+     * @param nome Nome do thread.
+     * @param espera Como o thread espera por eventos.
+     * @param consumidor Recebe cada evento. O evento é reusado na próxima
+     * entrega.
+     * @return O thread iniciado (daemon).
+     */
+    public Thread inicia(String nome, Espera espera, Consumer<EventoDeteccao> consumidor) {
+        Leitor l = leitor(espera);
+        Thread t = new Thread(nome) {
+            @Override
+            public void run() {
+                EventoDeteccao e = new EventoDeteccao();
+                try {
+                    while (true) {
+                        l.le(e);
+                        consumidor.accept(e);
+                    }
+                } catch (InterruptedException ex) {
+                    //Encerrado
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private synchronized void registraBloqueante(Leitor l) {
+        Leitor[] atuais = bloqueantes;
+        Leitor[] novos = Arrays.copyOf(atuais, atuais.length + 1);
+        novos[atuais.length] = l;
+        bloqueantes = novos;
+    }
+
+    /**
+     * Lê os eventos do canal na ordem em que foram publicados.
+     */
+    public class Leitor {
+
+        private final Espera espera;
+        private long proximo;
+        private long perdidos;
+        private Thread thread;
+        private volatile boolean dormindo;
+
+        private Leitor(Espera espera, long proximo) {
+            this.espera = espera;
+            this.proximo = proximo;
+        }
+
+        /**
+         * Lê o próximo evento, esperando se ainda não foi publicado.
+         *
+         * @param destino Evento que recebe os valores.
+         * @throws InterruptedException Se o thread for interrompido enquanto
+         * espera.
+         */
+        public void le(EventoDeteccao destino) throws InterruptedException {
+            if (espera == Espera.Bloquear && thread == null) {
+                thread = Thread.currentThread();
+                registraBloqueante(this);
+            }
+            while (!tenta(destino))
+                espera();
+        }
+
+        /**
+         * Lê o próximo evento se ele já foi publicado, sem esperar.
+         *
+         * @param destino Evento que recebe os valores.
+         * @return Falso se não há evento novo.
+         */
+        public boolean tenta(EventoDeteccao destino) {
+            while (true) {
+                long publicado = cursor.get();
+                if (publicado < proximo)
+                    return false;
+                if (publicado - proximo >= capacidade) {
+                    //Ficou para trás: pula para o evento mais antigo ainda guardado
+                    perdidos += publicado - capacidade + 1 - proximo;
+                    proximo = publicado - capacidade + 1;
+                }
+                int base = (int) (proximo & mascara) * CAMPOS;
+                if (posicoes.get(base + SEQUENCIA) != proximo)
+                    continue; //Reescrita desde a leitura do cursor
+                long indice = posicoes.get(base + INDICE);
+                long tempo = posicoes.get(base + TEMPO);
+                long centro = posicoes.get(base + CENTRO);
+                long tamanho = posicoes.get(base + TAMANHO);
+                int estado = (int) posicoes.get(base + ESTADO);
+                if (posicoes.get(base + SEQUENCIA) != proximo)
+                    continue; //Reescrita durante a cópia
+                destino.sequencia = proximo;
+                destino.indice = indice;
+                destino.tempoCaptura = tempo;
+                destino.x = (int) (centro >> 32);
+                destino.y = (int) centro;
+                destino.largura = (int) (tamanho >> 32);
+                destino.altura = (int) tamanho;
+                destino.estado = EventoDeteccao.Estado.fromOrdinal(estado & 0xff);
+                destino.exact = (estado & (1 << 8)) != 0;
+                proximo++;
+                return true;
+            }
+        }
+
+        private void espera() throws InterruptedException {
+            switch (espera) {
+                case Ocupada:
+                    break;
+                case Ceder:
+                    Thread.yield();
+                    break;
+                case Bloquear:
+                    dormindo = true;
+                    if (cursor.get() < proximo) //O evento pode ter chegado antes de marcar
+                        LockSupport.parkNanos(this, ESPERA_MAXIMA);
+                    dormindo = false;
+                    break;
+            }
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+
+        /**
+         * @return Eventos perdidos por este leitor ter ficado mais de
+         * {@link CanalDeteccoes#getCapacidade()} eventos atrás.
+         */
+        public long getPerdidos() {
+            return perdidos;
+        }
+
+        /**
+         * @return Eventos publicados e ainda não lidos (limitado à capacidade).
+         */
+        public long getPendentes() {
+            return Math.min(capacidade, cursor.get() + 1 - proximo);
+        }
+    }
+}
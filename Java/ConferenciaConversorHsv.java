@@ -0,0 +1,52 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Confere o kernel do {@link ConversorHsv} contra o OpenCV, em uma imagem com
+ * todas as cores BGR (4096 x 4096) e com os limites padrão. A conversão para
+ * HSV e a máscara do InRange têm que ser iguais bit a bit.
+ * <p>
+ * Uso: {@code ConferenciaConversorHsv}. Precisa da biblioteca nativa do
+ * OpenCV, e termina com código 1 se alguma diferença for encontrada.
+ */
+public class ConferenciaConversorHsv {
+
+    public static void main(String[] args) {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        byte[] cores = new byte[4096 * 4096 * 3];
+        for (int c = 0, j = 0; c < 1 << 24; c++, j += 3) {
+            cores[j] = (byte) c;
+            cores[j + 1] = (byte) (c >> 8);
+            cores[j + 2] = (byte) (c >> 16);
+        }
+        Mat bgr = new Mat(4096, 4096, CvType.CV_8UC3);
+        bgr.put(0, 0, cores);
+
+        ConversorHsv opencv = new ConversorHsv();
+        ConversorHsv kernel = new ConversorHsv(true, ConversorHsv.MIN_1, ConversorHsv.MAX_1,
+                ConversorHsv.MIN_2, ConversorHsv.MAX_2);
+        Mat hsvA = new Mat(), hsvB = new Mat(), mascaraA = new Mat(), mascaraB = new Mat();
+        opencv.hsvMascara(bgr, hsvA, mascaraA);
+        kernel.hsvMascara(bgr, hsvB, mascaraB);
+
+        int difHsv = diferencas(hsvA, hsvB);
+        int difMascara = diferencas(mascaraA, mascaraB);
+        System.out.println("HSV: " + difHsv + " bytes diferentes; máscara: " + difMascara + " bytes diferentes");
+        System.exit(difHsv == 0 && difMascara == 0 ? 0 : 1);
+    }
+
+    private static int diferencas(Mat a, Mat b) {
+        byte[] x = new byte[(int) (a.total() * a.channels())];
+        byte[] y = new byte[(int) (b.total() * b.channels())];
+        if (x.length != y.length)
+            return Math.max(x.length, y.length);
+        a.get(0, 0, x);
+        b.get(0, 0, y);
+        int d = 0;
+        for (int i = 0; i < x.length; i++)
+            if (x[i] != y[i])
+                d++;
+        return d;
+    }
+}
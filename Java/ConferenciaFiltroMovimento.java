@@ -0,0 +1,105 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Confere o {@link FiltroMovimento} em quadros sintéticos, com uma mudança
+ * fora da janela do {@link RastreadorROI}: ela tem que entrar na região de
+ * busca, e um bloco mudado que outro planejador deixou fora da região, ou que
+ * só mudou em um quadro descartado antes da fusão, tem que continuar mudado
+ * no quadro seguinte.
+ * <p>
+ * Uso: {@code ConferenciaFiltroMovimento}. Precisa da biblioteca nativa do
+ * OpenCV, e termina com código 1 se alguma conferência falhar.
+ */
+public class ConferenciaFiltroMovimento {
+
+    public static void main(String[] args) {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        FiltroMovimento filtro = new FiltroMovimento(80, 8, 10, 30);
+        RastreadorROI rastreador = new RastreadorROI(0.5, 15);
+        Quadro q = new Quadro();
+        Mat normal = q.getNormal();
+        normal.create(480, 640, CvType.CV_8UC3);
+        normal.setTo(new Scalar(128, 128, 128));
+        Rect objeto = new Rect(80, 80, 40, 40);
+        Rect mudanca = new Rect(480, 320, 64, 64);
+        Rect escondida = new Rect(32, 384, 64, 64);
+        Rect descartada = new Rect(320, 32, 64, 64);
+        int falhas = 0;
+
+        planejaTeste(q, 0, filtro, rastreador, null, true);
+        ObjDetec o = new ObjDetec(objeto, ObjDetec.CascOrigin.Indef);
+        rastreador.atualiza(o, 0);
+        filtro.atualiza(o);
+        planejaTeste(q, 1, filtro, rastreador, null, true);
+        falhas += confere("quadro igual é pulado", !q.getPlano().isDetectar());
+
+        //Um bloco muda longe do objeto rastreado
+        Imgproc.rectangle(normal, mudanca.tl(), mudanca.br(), new Scalar(255, 255, 255), -1);
+        planejaTeste(q, 2, filtro, rastreador, null, true);
+        Rect roi = q.getPlano().getRoi();
+        falhas += confere("região contém a mudança", q.getPlano().temRoi() && contem(roi, mudanca));
+        falhas += confere("região contém o objeto", q.getPlano().temRoi() && contem(roi, objeto));
+        planejaTeste(q, 3, filtro, rastreador, null, true);
+        falhas += confere("mudança varrida não volta", !q.getPlano().isDetectar());
+
+        //Outra mudança, que um planejador deixa fora da região final
+        Imgproc.rectangle(normal, escondida.tl(), escondida.br(), new Scalar(0, 0, 0), -1);
+        planejaTeste(q, 4, filtro, rastreador, new Rect(0, 0, 192, 192), true);
+        planejaTeste(q, 5, filtro, rastreador, null, true);
+        falhas += confere("mudança não varrida continua marcada", q.getPlano().isDetectar()
+                && (!q.getPlano().temRoi() || contem(q.getPlano().getRoi(), escondida)));
+
+        //Outra mudança, vista só por um quadro que a fila descarta
+        Imgproc.rectangle(normal, descartada.tl(), descartada.br(), new Scalar(255, 255, 255), -1);
+        planejaTeste(q, 6, filtro, rastreador, null, false);
+        planejaTeste(q, 7, filtro, rastreador, null, true);
+        falhas += confere("mudança de quadro descartado continua marcada", q.getPlano().isDetectar()
+                && (!q.getPlano().temRoi() || contem(q.getPlano().getRoi(), descartada)));
+
+        q.release();
+        filtro.release();
+        System.out.println(falhas == 0 ? "OK" : falhas + " falhas");
+        System.exit(falhas == 0 ? 0 : 1);
+    }
+
+    /**
+     * Planeja um quadro como a captura do {@link CamDetect}, e confirma como a
+     * fusão se o quadro chegar lá.
+     *
+     * @param regiao Região que substitui a planejada antes da confirmação, ou
+     * null.
+     * @param funde Se o quadro chega à fusão, ou é descartado por uma fila.
+     */
+    private static void planejaTeste(Quadro q, long indice, FiltroMovimento filtro, RastreadorROI rastreador, Rect regiao, boolean funde) {
+        q.setIndice(indice);
+        q.getPlano().limpa();
+        filtro.planeja(q);
+        if (q.getPlano().isDetectar())
+            rastreador.planeja(q);
+        if (regiao != null) {
+            Rect roi = q.getPlano().getRoi();
+            roi.x = regiao.x;
+            roi.y = regiao.y;
+            roi.width = regiao.width;
+            roi.height = regiao.height;
+        }
+        if (funde)
+            filtro.confirma(q);
+    }
+
+    private static boolean contem(Rect fora, Rect dentro) {
+        return dentro.x >= fora.x && dentro.y >= fora.y
+                && dentro.x + dentro.width <= fora.x + fora.width
+                && dentro.y + dentro.height <= fora.y + fora.height;
+    }
+
+    private static int confere(String nome, boolean ok) {
+        System.out.println((ok ? "ok    " : "FALHA ") + nome);
+        return ok ? 0 : 1;
+    }
+}
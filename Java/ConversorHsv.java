@@ -0,0 +1,241 @@
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Tratamento de cor dos cascades {@linkplain ObjDetec.CascOrigin#HSV HSV} e
+ * {@linkplain ObjDetec.CascOrigin#InRange InRange}: a conversão de BGR para
+ * HSV e a máscara binária das duas faixas de vermelho.
+ * <p>
+ * Pelo OpenCV são quatro passadas pela imagem ({@code cvtColor}, dois
+ * {@code inRange} e um {@code bitwise_or}) e duas matrizes temporárias. Com o
+ * kernel ligado, a conversão e a máscara são feitas em uma passada só, em
+ * Java, sobre uma cópia dos bytes da imagem. A conversão reproduz a versão
+ * inteira do OpenCV ({@code RGB2HSV_b}: tabelas de divisão com
+ * {@code hsv_shift = 12}), e a máscara usa uma tabela por canal com um bit
+ * para cada faixa, com os limites arredondados como no {@code inRange}
+ * (mínimo para cima, máximo para baixo). O resultado é igual ao do OpenCV bit
+ * a bit, o que pode ser conferido com {@link ConferenciaConversorHsv}.
+ * <p>
+ * Guarda vetores de trabalho, então cada thread deve usar a sua
+ * {@linkplain #copia() cópia}.
+ */
+public class ConversorHsv {
+
+    /**
+     * Limites de cor (HSV) padrão do InRange. O vermelho fica nas duas pontas
+     * da escala de matiz, por isso são duas faixas.
+     */
+    public static final Scalar MIN_1 = new Scalar(0, 80, 30);
+    public static final Scalar MAX_1 = new Scalar(13, 230, 255);
+    public static final Scalar MIN_2 = new Scalar(170, 80, 30);
+    public static final Scalar MAX_2 = new Scalar(255, 230, 255);
+
+    private static final int HSV_SHIFT = 12;
+    /**
+     * Tabelas de divisão do OpenCV: (255 << 12) / v para a saturação e
+     * (180 << 12) / (6 * diff) para a matiz.
+     */
+    private static final int[] SDIV = new int[256];
+    private static final int[] HDIV = new int[256];
+
+    static {
+        for (int i = 1; i < 256; i++) {
+            SDIV[i] = (int) Math.rint((255 << HSV_SHIFT) / (1. * i));
+            HDIV[i] = (int) Math.rint((180 << HSV_SHIFT) / (6. * i));
+        }
+    }
+
+    private final boolean kernel;
+    private final Scalar min1, max1, min2, max2;
+    /**
+     * Bit 0: valor dentro da faixa 1; bit 1: dentro da faixa 2. Um pixel
+     * entra na máscara quando os três canais têm algum bit em comum.
+     */
+    private final byte[] faixaH = new byte[256];
+    private final byte[] faixaS = new byte[256];
+    private final byte[] faixaV = new byte[256];
+
+    private byte[] entrada = new byte[0];
+    private byte[] hsv = new byte[0];
+    private byte[] mascara = new byte[0];
+    private final Mat im1 = new Mat();
+    private final Mat im2 = new Mat();
+
+    /**
+     * Conversor pelo OpenCV com os limites padrão.
+     */
+    public ConversorHsv() {
+        this(false, MIN_1, MAX_1, MIN_2, MAX_2);
+    }
+
+    /**
+     * @param kernel Se usa a passada única em Java, ou as funções do OpenCV.
+     * @param min1 Mínimo (H, S, V) da primeira faixa.
+     * @param max1 Máximo da primeira faixa.
+     * @param min2 Mínimo da segunda faixa.
+     * @param max2 Máximo da segunda faixa.
+     */
+    public ConversorHsv(boolean kernel, Scalar min1, Scalar max1, Scalar min2, Scalar max2) {
+        this.kernel = kernel;
+        this.min1 = min1;
+        this.max1 = max1;
+        this.min2 = min2;
+        this.max2 = max2;
+        preenche(faixaH, 0);
+        preenche(faixaS, 1);
+        preenche(faixaV, 2);
+    }
+
+    private void preenche(byte[] faixa, int canal) {
+        marca(faixa, min1.val[canal], max1.val[canal], 1);
+        marca(faixa, min2.val[canal], max2.val[canal], 2);
+    }
+
+    /**
+     * Marca os valores de [min, max] com o bit, arredondando os limites
+     * como o {@code inRange} faz para imagens de 8 bits.
+     */
+    private static void marca(byte[] faixa, double min, double max, int bit) {
+        int inicio = (int) Math.max(Math.ceil(min), 0);
+        int fim = (int) Math.min(Math.floor(max), 255);
+        for (int i = inicio; i <= fim; i++)
+            faixa[i] |= bit;
+    }
+
+    /**
+     * @return Conversor com a mesma configuração e vetores de trabalho
+     * próprios, para outro thread.
+     */
+    public ConversorHsv copia() {
+        return new ConversorHsv(kernel, min1, max1, min2, max2);
+    }
+
+    public boolean isKernel() {
+        return kernel;
+    }
+
+    /**
+     * Converte a imagem para HSV.
+     *
+     * @param normal Imagem BGR.
+     * @param destino Imagem HSV.
+     */
+    public void hsv(Mat normal, Mat destino) {
+        long inicio = System.nanoTime();
+        if (kernel) {
+            int n = le(normal);
+            converte(entrada, hsv, null, n);
+            destino.create(normal.rows(), normal.cols(), CvType.CV_8UC3);
+            destino.put(0, 0, hsv);
+        } else {
+            Imgproc.cvtColor(normal, destino, Imgproc.COLOR_BGR2HSV);
+        }
+        Metricas.HSV.registraDesde(inicio);
+    }
+
+    /**
+     * Gera a máscara das duas faixas a partir de uma imagem já em HSV.
+     *
+     * @param origem Imagem HSV.
+     * @param destino Máscara (255 dentro das faixas, 0 fora).
+     */
+    public void mascara(Mat origem, Mat destino) {
+        long inicio = System.nanoTime();
+        if (kernel) {
+            int n = le(origem);
+            if (mascara.length < n)
+                mascara = new byte[n];
+            for (int i = 0, j = 0; i < n; i++, j += 3)
+                mascara[i] = (faixaH[entrada[j] & 0xff] & faixaS[entrada[j + 1] & 0xff] & faixaV[entrada[j + 2] & 0xff]) != 0 ? (byte) 255 : 0;
+            escreveMascara(origem, destino);
+        } else {
+            Core.inRange(origem, min1, max1, im1);
+            Core.inRange(origem, min2, max2, im2);
+            Core.bitwise_or(im1, im2, destino);
+        }
+        Metricas.INRANGE.registraDesde(inicio);
+    }
+
+    /**
+     * Gera a imagem HSV e a máscara. Com o kernel é uma passada só, medida
+     * toda como {@linkplain Metricas#HSV HSV}.
+     *
+     * @param normal Imagem BGR.
+     * @param destinoHsv Imagem HSV.
+     * @param destinoMascara Máscara.
+     */
+    public void hsvMascara(Mat normal, Mat destinoHsv, Mat destinoMascara) {
+        if (!kernel) {
+            hsv(normal, destinoHsv);
+            mascara(destinoHsv, destinoMascara);
+            return;
+        }
+        long inicio = System.nanoTime();
+        int n = le(normal);
+        if (mascara.length < n)
+            mascara = new byte[n];
+        converte(entrada, hsv, mascara, n);
+        destinoHsv.create(normal.rows(), normal.cols(), CvType.CV_8UC3);
+        destinoHsv.put(0, 0, hsv);
+        escreveMascara(normal, destinoMascara);
+        Metricas.HSV.registraDesde(inicio);
+    }
+
+    /**
+     * Copia os bytes da imagem de 3 canais para {@link #entrada}, garantindo
+     * também o tamanho de {@link #hsv}.
+     *
+     * @return Numero de pixels.
+     */
+    private int le(Mat m) {
+        if (m.channels() != 3 || m.depth() != CvType.CV_8U || !m.isContinuous())
+            throw new IllegalArgumentException("A imagem deve ser continua, com 3 canais de 8 bits.");
+        int n = (int) m.total();
+        if (entrada.length < n * 3) {
+            entrada = new byte[n * 3];
+            hsv = new byte[n * 3];
+        }
+        m.get(0, 0, entrada);
+        return n;
+    }
+
+    private void escreveMascara(Mat base, Mat destino) {
+        destino.create(base.rows(), base.cols(), CvType.CV_8UC1);
+        destino.put(0, 0, mascara);
+    }
+
+    /**
+     * A passada única: converte n pixels BGR para HSV como o
+     * {@code RGB2HSV_b} do OpenCV e, se mascara não for null, já testa as
+     * faixas.
+     */
+    void converte(byte[] origem, byte[] destino, byte[] mascara, int n) {
+        final int arredonda = 1 << (HSV_SHIFT - 1);
+        for (int i = 0, j = 0; i < n; i++, j += 3) {
+            int b = origem[j] & 0xff, g = origem[j + 1] & 0xff, r = origem[j + 2] & 0xff;
+            int v = Math.max(b, Math.max(g, r));
+            int diff = v - Math.min(b, Math.min(g, r));
+            int vr = v == r ? -1 : 0;
+            int vg = v == g ? -1 : 0;
+            int s = (diff * SDIV[v] + arredonda) >> HSV_SHIFT;
+            int h = (vr & (g - b)) + (~vr & ((vg & (b - r + 2 * diff)) + (~vg & (r - g + 4 * diff))));
+            h = (h * HDIV[diff] + arredonda) >> HSV_SHIFT;
+            if (h < 0)
+                h += 180;
+            destino[j] = (byte) h;
+            destino[j + 1] = (byte) s;
+            destino[j + 2] = (byte) v;
+            if (mascara != null)
+                mascara[i] = (faixaH[h] & faixaS[s] & faixaV[v]) != 0 ? (byte) 255 : 0;
+        }
+    }
+
+    public void release() {
+        im1.release();
+        im2.release();
+    }
+}
@@ -0,0 +1,489 @@
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Executa os 3 cascades ({@linkplain ObjDetec.CascOrigin#Normal Normal},
+ * {@linkplain ObjDetec.CascOrigin#HSV HSV} e
+ * {@linkplain ObjDetec.CascOrigin#InRange InRange}) sobre um
+ * {@linkplain Quadro quadro}, incluindo o tratamento de imagem de cada um.
+ * <p>
+ * No modo paralelo cada ramo (tratamento + detecção) roda em um thread próprio
+ * de um pool fixo, e {@link #detecta(Quadro) detecta()} só retorna depois que
+ * os três terminam. Assim o tempo do quadro fica próximo ao do cascade mais
+ * lento, e não à soma dos três. Como o {@link CascadeClassifier} não pode ser
+ * usado por mais de um thread ao mesmo tempo, cada ramo carrega a sua própria
+ * instância e ela só é usada pelo thread do ramo. A troca de trabalho com os
+ * threads é feita com {@link LockSupport#park() park}/{@link LockSupport#unpark(Thread) unpark}
+ * para não alocar nada por quadro.
+ * <p>
+ * No modo sequencial um {@link EscalonadorCascades} pode decidir a ordem dos
+ * cascades e pular o terceiro quando os dois primeiros já concordam. Nesse
+ * caso as imagens HSV e InRange só são geradas pelo cascade que precisa delas.
+ */
+public class DetectorCascades {
+
+    private final boolean paralelo;
+
+    private final Ramo normal;
+    private final Ramo hsv;
+    private final Ramo inRange;
+
+    /**
+     * Tratamento de cor de {@link #preprocessa(Quadro) preprocessa()} e da
+     * detecção escalonada.
+     */
+    private ConversorHsv conversor = new ConversorHsv();
+
+    private EscalonadorCascades escalonador;
+    /**
+     * Retângulos dos dois primeiros cascades, para conferir o consenso.
+     */
+    private int[] retangulosA = new int[64];
+    private int[] retangulosB = new int[64];
+
+    /**
+     * @param xmlNormal Caminho do XML do cascade Normal.
+     * @param xmlHsv Caminho do XML do cascade HSV.
+     * @param xmlInRange Caminho do XML do cascade InRange.
+     * @param paralelo Se os 3 cascades devem rodar ao mesmo tempo.
+     * @throws IllegalArgumentException Se algum XML não puder ser lido.
+     */
+    public DetectorCascades(String xmlNormal, String xmlHsv, String xmlInRange, boolean paralelo) {
+        this.paralelo = paralelo;
+        //Ler os XMLs é a maior parte da inicialização, então os 3 são lidos ao mesmo tempo
+        CompletableFuture<CascadeClassifier> cHsv = CompletableFuture.supplyAsync(() -> carrega(xmlHsv));
+        CompletableFuture<CascadeClassifier> cInRange = CompletableFuture.supplyAsync(() -> carrega(xmlInRange));
+        normal = new Ramo(ObjDetec.CascOrigin.Normal, carrega(xmlNormal));
+        hsv = new Ramo(ObjDetec.CascOrigin.HSV, aguarda(cHsv));
+        inRange = new Ramo(ObjDetec.CascOrigin.InRange, aguarda(cInRange));
+
+        if (paralelo) {
+            //Um thread por ramo, para que cada classificador fique preso ao seu thread
+            normal.inicia("cascade-normal");
+            hsv.inicia("cascade-hsv");
+            inRange.inicia("cascade-inrange");
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException Se o XML não puder ser lido.
+     */
+    private static CascadeClassifier carrega(String xml) {
+        CascadeClassifier c = new CascadeClassifier(xml);
+        if (c.empty())
+            throw new IllegalArgumentException("Não foi possivel carregar o cascade " + xml);
+        return c;
+    }
+
+    private static CascadeClassifier aguarda(CompletableFuture<CascadeClassifier> carregamento) {
+        try {
+            return carregamento.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw ex;
+        }
+    }
+
+    public boolean isParalelo() {
+        return paralelo;
+    }
+
+    /**
+     * @param escalonador Escalonador dos cascades, ou null para rodar sempre
+     * os três.
+     * @throws IllegalStateException Se o detector for paralelo, já que os três
+     * cascades começam juntos.
+     */
+    public void setEscalonador(EscalonadorCascades escalonador) {
+        if (paralelo && escalonador != null)
+            throw new IllegalStateException("O escalonador exige a detecção sequencial.");
+        this.escalonador = escalonador;
+    }
+
+    public EscalonadorCascades getEscalonador() {
+        return escalonador;
+    }
+
+    /**
+     * Troca o tratamento de cor (limites do InRange e kernel de passada
+     * única). Cada ramo recebe uma cópia. Deve ser chamado antes do primeiro
+     * quadro.
+     *
+     * @param conversor Novo tratamento de cor.
+     */
+    public void setConversor(ConversorHsv conversor) {
+        this.conversor.release();
+        this.conversor = conversor;
+        normal.setConversor(conversor.copia());
+        hsv.setConversor(conversor.copia());
+        inRange.setConversor(conversor.copia());
+    }
+
+    /**
+     * Faz o tratamento de imagem e a detecção dos 3 cascades no quadro. As
+     * imagens tratadas e as detecções ficam salvas no próprio quadro. Não
+     * faz nada se o {@linkplain PlanoDeteccao#isDetectar() plano} do quadro
+     * não pede detecção, e o cascade {@linkplain PlanoDeteccao#getPulado()
+     * pulado} pelo plano fica sem detecções.
+     *
+     * @param q Quadro com a imagem {@linkplain Quadro#getNormal() normal} já
+     * capturada.
+     */
+    public void detecta(Quadro q) {
+        executa(q, true);
+    }
+
+    /**
+     * Faz só o tratamento de imagem do quadro, gerando as imagens HSV e
+     * InRange. Usado quando o tratamento e a detecção ficam em estágios
+     * diferentes do {@linkplain PipelineDeteccao pipeline}. Com
+     * {@linkplain #setEscalonador(EscalonadorCascades) escalonador}, só a
+     * imagem de detecção é gerada, e o resto fica para a detecção.
+     *
+     * @param q Quadro com a imagem {@linkplain Quadro#getNormal() normal} já
+     * capturada.
+     */
+    public void preprocessa(Quadro q) {
+        if (!q.getPlano().isDetectar())
+            return;
+        q.preparaImagemDeteccao();
+        if (escalonador != null)
+            return;
+        if (q.getPlano().getPulado() == ObjDetec.CascOrigin.InRange)
+            conversor.hsv(q.getImagemDeteccao(), q.getHsv());
+        else
+            conversor.hsvMascara(q.getImagemDeteccao(), q.getHsv(), q.getInRange());
+    }
+
+    /**
+     * Faz a detecção dos 3 cascades em um quadro que já passou por
+     * {@link #preprocessa(Quadro) preprocessa()}.
+     *
+     * @param q Quadro já tratado.
+     */
+    public void detectaPreprocessado(Quadro q) {
+        executa(q, false);
+    }
+
+    private void executa(Quadro q, boolean preprocessa) {
+        if (!q.getPlano().isDetectar())
+            return;
+        if (preprocessa)
+            q.preparaImagemDeteccao();
+        if (escalonador != null) {
+            executaEscalonado(q);
+            return;
+        }
+        ObjDetec.CascOrigin pulado = q.getPlano().getPulado();
+        if (pulado != ObjDetec.CascOrigin.Indef)
+            q.getDeteccoes(pulado).release();
+        if (!paralelo) {
+            if (pulado != ObjDetec.CascOrigin.Normal)
+                normal.executa(q, preprocessa, false);
+            if (pulado != ObjDetec.CascOrigin.HSV)
+                hsv.executa(q, preprocessa, false);
+            if (pulado != ObjDetec.CascOrigin.InRange)
+                inRange.executa(q, preprocessa, pulado == ObjDetec.CascOrigin.HSV); //Usa o HSV que acabou de ser gerado, se houver
+            return;
+        }
+
+        //Um ramo que não foi disparado não tem o que esperar
+        if (pulado != ObjDetec.CascOrigin.Normal)
+            normal.dispara(q, preprocessa);
+        if (pulado != ObjDetec.CascOrigin.HSV)
+            hsv.dispara(q, preprocessa);
+        if (pulado != ObjDetec.CascOrigin.InRange)
+            inRange.dispara(q, preprocessa);
+        normal.aguarda();
+        hsv.aguarda();
+        inRange.aguarda();
+    }
+
+    /**
+     * Roda os cascades na ordem do escalonador, gerando o HSV e o InRange só
+     * quando algum cascade precisa deles. O custo do HSV entra no primeiro
+     * cascade que o usa (junto com a máscara, se for o InRange). Se os dois primeiros concordam, o terceiro fica sem
+     * detecções, a não ser que o escalonador peça uma auditoria, que fica
+     * marcada no quadro.
+     */
+    private void executaEscalonado(Quadro q) {
+        ObjDetec.CascOrigin[] ordem = escalonador.ordena();
+        q.setAuditoria(ObjDetec.CascOrigin.Indef);
+        boolean temHsv = false;
+        boolean temMascara = false;
+        for (int k = 0; k < ordem.length; k++) {
+            ObjDetec.CascOrigin orig = ordem[k];
+            if (orig == q.getPlano().getPulado()) {
+                q.getDeteccoes(orig).release();
+                continue;
+            }
+            if (k == 2 && concordam(q, ordem[0], ordem[1])) {
+                if (escalonador.consenso(orig)) {
+                    q.getDeteccoes(orig).release();
+                    return;
+                }
+                q.setAuditoria(orig);
+            }
+            long inicio = System.nanoTime();
+            if (orig == ObjDetec.CascOrigin.InRange && !temHsv) {
+                conversor.hsvMascara(q.getImagemDeteccao(), q.getHsv(), q.getInRange());
+                temHsv = temMascara = true;
+            } else if (orig != ObjDetec.CascOrigin.Normal && !temHsv) {
+                conversor.hsv(q.getImagemDeteccao(), q.getHsv());
+                temHsv = true;
+            }
+            if (orig == ObjDetec.CascOrigin.InRange && !temMascara)
+                conversor.mascara(q.getHsv(), q.getInRange());
+            ramo(orig).executa(q, false, false);
+            escalonador.registra(orig, System.nanoTime() - inicio, q.getDeteccoes(orig).rows() > 0);
+        }
+    }
+
+    /**
+     * @return Se alguma detecção do cascade a concorda com alguma do b.
+     */
+    private boolean concordam(Quadro q, ObjDetec.CascOrigin a, ObjDetec.CascOrigin b) {
+        MatOfRect detA = q.getDeteccoes(a);
+        MatOfRect detB = q.getDeteccoes(b);
+        int na = detA.rows();
+        int nb = detB.rows();
+        if (na == 0 || nb == 0)
+            return false;
+        if (retangulosA.length < na * 4)
+            retangulosA = new int[na * 8];
+        if (retangulosB.length < nb * 4)
+            retangulosB = new int[nb * 8];
+        detA.get(0, 0, retangulosA);
+        detB.get(0, 0, retangulosB);
+        return EstruturaAmostras.cascadesAgree(retangulosA, na, retangulosB, nb);
+    }
+
+    private Ramo ramo(ObjDetec.CascOrigin orig) {
+        switch (orig) {
+            case Normal:
+                return normal;
+            case HSV:
+                return hsv;
+            case InRange:
+                return inRange;
+            default:
+                throw new Error("Não é possivel detectar, pois o tipo de cascade é indefinido.");
+        }
+    }
+
+    /**
+     * @return Threads dos ramos no modo paralelo (vazio no sequencial).
+     */
+    public Thread[] getThreads() {
+        if (!paralelo)
+            return new Thread[0];
+        return new Thread[]{normal.thread, hsv.thread, inRange.thread};
+    }
+
+    /**
+     * Encerra os threads do modo paralelo e libera a memória nativa das
+     * matrizes temporarias.
+     */
+    public void close() {
+        normal.encerra();
+        hsv.encerra();
+        inRange.encerra();
+        conversor.release();
+    }
+
+    /**
+     * Um ramo da detecção: o tratamento de imagem de um cascade seguido da
+     * chamada de {@link CascadeClassifier#detectMultiScale(Mat, MatOfRect, double, int, int, org.opencv.core.Size, org.opencv.core.Size) detectMultiScale}
+     * com os parâmetros do {@linkplain PlanoDeteccao plano} do quadro.
+     * No modo paralelo o ramo tem um thread próprio, que dorme até receber um
+     * quadro em {@link #dispara(Quadro, boolean) dispara()}.
+     */
+    private static class Ramo implements Runnable {
+
+        private final ObjDetec.CascOrigin origem;
+        private final CascadeClassifier cascade;
+        private final HistogramaLatencia medicao;
+
+        /**
+         * HSV próprio do ramo InRange no modo paralelo, já que ele não pode
+         * esperar o ramo HSV terminar.
+         */
+        private final Mat hsvPrivado = new Mat();
+        private ConversorHsv conversor = new ConversorHsv();
+
+        /**
+         * Buffer para mover as detecções do recorte para o quadro inteiro.
+         */
+        private int[] retangulos = new int[64];
+
+        private Thread thread;
+        private Thread chamador;
+        private Quadro quadro;
+        private boolean preprocessa;
+        /**
+         * Numero de pedidos feitos e atendidos. Só quem chama escreve em
+         * pedidos, e só o thread do ramo escreve em atendidos.
+         */
+        private volatile int pedidos;
+        private volatile int atendidos;
+        private volatile boolean encerrado;
+        private volatile RuntimeException erro;
+
+        Ramo(ObjDetec.CascOrigin origem, CascadeClassifier cascade) {
+            this.origem = origem;
+            this.cascade = cascade;
+            this.medicao = Metricas.cascade(origem);
+        }
+
+        void inicia(String nome) {
+            thread = new Thread(this, nome);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Entrega um quadro para o thread do ramo.
+         */
+        void dispara(Quadro q, boolean preprocessa) {
+            this.quadro = q;
+            this.preprocessa = preprocessa;
+            this.chamador = Thread.currentThread();
+            pedidos++; //Escrita volatil publica os campos acima
+            LockSupport.unpark(thread);
+        }
+
+        /**
+         * Espera o thread do ramo terminar o quadro entregue. Mesmo se
+         * interrompido, espera o fim, pois o ramo ainda usa as matrizes do
+         * quadro.
+         */
+        void aguarda() {
+            boolean interrompido = false;
+            while (atendidos != pedidos) {
+                LockSupport.park(this);
+                if (Thread.interrupted())
+                    interrompido = true;
+            }
+            if (interrompido)
+                Thread.currentThread().interrupt();
+            RuntimeException e = erro;
+            if (e != null) {
+                erro = null;
+                throw new RuntimeException(e);
+            }
+        }
+
+        void setConversor(ConversorHsv conversor) {
+            this.conversor.release();
+            this.conversor = conversor;
+        }
+
+        void encerra() {
+            encerrado = true;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+                try {
+                    thread.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            hsvPrivado.release();
+            conversor.release();
+        }
+
+        @Override
+        public void run() {
+            int feitos = 0;
+            while (true) {
+                while (pedidos == feitos && !encerrado)
+                    LockSupport.park(this);
+                if (encerrado)
+                    return;
+                feitos = pedidos;
+                try {
+                    executa(quadro, preprocessa, true);
+                } catch (RuntimeException ex) {
+                    erro = ex;
+                } catch (Error ex) {
+                    erro = new RuntimeException(ex);
+                }
+                atendidos = feitos;
+                LockSupport.unpark(chamador);
+            }
+        }
+
+        /**
+         * @param q Quadro a processar.
+         * @param preprocessa Se o ramo deve fazer o seu tratamento de imagem,
+         * ou se o quadro já foi tratado.
+         * @param isolado Se o ramo roda junto com os outros, e portanto não
+         * pode usar imagens geradas por eles.
+         */
+        void executa(Quadro q, boolean preprocessa, boolean isolado) {
+            Mat imagem;
+            switch (origem) {
+                case Normal:
+                    imagem = q.getImagemDeteccao();
+                    break;
+                case HSV:
+                    if (preprocessa)
+                        conversor.hsv(q.getImagemDeteccao(), q.getHsv());
+                    imagem = q.getHsv();
+                    break;
+                case InRange:
+                    if (preprocessa) {
+                        if (isolado)
+                            conversor.hsvMascara(q.getImagemDeteccao(), hsvPrivado, q.getInRange());
+                        else
+                            conversor.mascara(q.getHsv(), q.getInRange());
+                    }
+                    imagem = q.getInRange();
+                    break;
+                default:
+                    throw new Error("Não é possivel detectar, pois o tipo de cascade é indefinido.");
+            }
+            PlanoDeteccao plano = q.getPlano();
+            MatOfRect det = q.getDeteccoes(origem);
+            long inicio = System.nanoTime();
+            cascade.detectMultiScale(imagem, det, plano.getFatorEscala(), plano.getVizinhos(), 0,
+                    plano.getTamanhoMin(), plano.getTamanhoMax());
+            medicao.registraDesde(inicio);
+            if (plano.temRoi() || plano.getEscala() < 1)
+                paraQuadro(det, plano);
+        }
+
+        /**
+         * Leva as detecções feitas na imagem de detecção (recortada e/ou
+         * reduzida) para as coordenadas do quadro inteiro.
+         *
+         * @param det Detecções do cascade.
+         * @param plano Plano usado na detecção.
+         */
+        private void paraQuadro(MatOfRect det, PlanoDeteccao plano) {
+            int n = det.rows() * 4;
+            if (n == 0)
+                return;
+            if (retangulos.length < n)
+                retangulos = new int[n * 2];
+            det.get(0, 0, retangulos);
+            double inv = 1 / plano.getEscala();
+            Rect roi = plano.getRoi(); //Zerada quando não tem região de busca
+            for (int i = 0; i < n; i += 4) {
+                retangulos[i] = (int) Math.round(retangulos[i] * inv) + roi.x;
+                retangulos[i + 1] = (int) Math.round(retangulos[i + 1] * inv) + roi.y;
+                retangulos[i + 2] = (int) Math.round(retangulos[i + 2] * inv);
+                retangulos[i + 3] = (int) Math.round(retangulos[i + 3] * inv);
+            }
+            det.put(0, 0, retangulos);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+
+/**
+ * Escolhe, a cada quadro, a escala da imagem de detecção e os limites de
+ * tamanho e o fator de escala do
+ * {@link org.opencv.objdetect.CascadeClassifier#detectMultiScale(org.opencv.core.Mat, org.opencv.core.MatOfRect, double, int, int, org.opencv.core.Size, org.opencv.core.Size) detectMultiScale}
+ * a partir dos tamanhos das amostras positivas verdadeiras guardadas na
+ * {@link EstruturaAmostras}.
+ * <p>
+ * Sem limites, cada cascade procura em todas as escalas, da sua janela mínima
+ * até o quadro inteiro. Quando o tamanho do objeto é conhecido, só as escalas
+ * próximas dele são procuradas, e se o objeto é bem maior que a janela do
+ * cascade a imagem é reduzida antes da detecção. Menos níveis na pirâmide e
+ * menos pixels por nível cortam o tempo dos cascades. Quando nenhuma amostra
+ * foi confirmada nos últimos quadros, volta para a escala base e a busca
+ * completa.
+ */
+public class EscalaAdaptativa {
+
+    /**
+     * A escala é arredondada para cima em passos de 1/PASSOS, para que o
+     * tamanho da imagem reduzida mude pouco e o OpenCV não precise realocá-la.
+     */
+    private static final int PASSOS = 8;
+
+    /**
+     * Menor escala usada na redução da imagem.
+     */
+    private static final double ESCALA_MINIMA = 0.25;
+
+    /**
+     * O menor objeto esperado deve ficar com pelo menos esse múltiplo da
+     * janela do cascade depois da redução, para não perder detalhes.
+     */
+    private static final double FATOR_JANELA = 2;
+
+    /**
+     * Numero de níveis da pirâmide desejado entre o menor e o maior tamanho.
+     */
+    private static final int NIVEIS = 6;
+    private static final double FATOR_ESCALA_MIN = 1.05;
+
+    /**
+     * Escala usada quando não há objeto confirmado.
+     */
+    private final double escalaBase;
+    /**
+     * Lado da janela de treino dos cascades, em pixels.
+     */
+    private final int janelaCascade;
+    /**
+     * Quanto o objeto pode diminuir ou aumentar em relação aos tamanhos já
+     * vistos, em fração.
+     */
+    private final double folga;
+
+    private final int[] limites = new int[4];
+    private boolean temHistorico;
+
+    /**
+     * @param escalaBase Escala da imagem de detecção quando não há objeto
+     * confirmado (1 = sem redução).
+     * @param janelaCascade Lado da janela de treino dos cascades, em pixels.
+     * @param folga Quanto o objeto pode variar de tamanho em relação aos já
+     * vistos, em fração (0.3 = 30%).
+     */
+    public EscalaAdaptativa(double escalaBase, int janelaCascade, double folga) {
+        this.escalaBase = escalaBase;
+        this.janelaCascade = janelaCascade;
+        this.folga = folga;
+    }
+
+    /**
+     * Atualiza os tamanhos conhecidos. Deve ser chamado depois de
+     * {@link EstruturaAmostras#evaluateSamples()}, no mesmo thread.
+     *
+     * @param amostras Estrutura com as amostras dos ultimos quadros.
+     */
+    public synchronized void atualiza(EstruturaAmostras amostras) {
+        temHistorico = amostras.trueSizeLimits(limites);
+    }
+
+    /**
+     * Preenche a escala e os parâmetros da detecção no plano do quadro.
+     *
+     * @param q Quadro a planejar.
+     */
+    public synchronized void planeja(Quadro q) {
+        PlanoDeteccao plano = q.getPlano();
+        if (!temHistorico || limites[0] <= 0 || limites[1] <= 0) {
+            plano.setEscala(escalaBase); //Busca completa
+            return;
+        }
+
+        double minLargura = limites[0] * (1 - folga);
+        double minAltura = limites[1] * (1 - folga);
+        double maxLargura = limites[2] * (1 + folga);
+        double maxAltura = limites[3] * (1 + folga);
+
+        //Reduz a imagem até o menor objeto ficar com FATOR_JANELA vezes a janela
+        double escala = janelaCascade * FATOR_JANELA / Math.min(minLargura, minAltura);
+        escala = Math.ceil(escala * PASSOS) / PASSOS;
+        escala = Math.min(escalaBase, Math.max(ESCALA_MINIMA, escala));
+        plano.setEscala(escala);
+
+        plano.getTamanhoMin().width = Math.max(janelaCascade, minLargura * escala);
+        plano.getTamanhoMin().height = Math.max(janelaCascade, minAltura * escala);
+        plano.getTamanhoMax().width = Math.max(plano.getTamanhoMin().width, maxLargura * escala);
+        plano.getTamanhoMax().height = Math.max(plano.getTamanhoMin().height, maxAltura * escala);
+
+        //Fator que cobre a faixa de tamanhos em NIVEIS passos, sem passar do padrão
+        double faixa = plano.getTamanhoMax().width / plano.getTamanhoMin().width;
+        double fator = Math.pow(faixa, 1.0 / NIVEIS);
+        plano.setFatorEscala(Math.max(FATOR_ESCALA_MIN, Math.min(PlanoDeteccao.FATOR_ESCALA_PADRAO, fator)));
+    }
+}
@@ -0,0 +1,205 @@
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Escolhe a ordem dos cascades em cada quadro e decide quando o terceiro pode
+ * ser pulado. A fusão ({@link EstruturaAmostras}) só precisa de dois cascades
+ * concordando para marcar um objeto como exato, então quando os dois
+ * primeiros {@linkplain EstruturaAmostras#cascadesAgree(int[], int, int[], int) concordam}
+ * o terceiro e o seu tratamento de imagem não rodam.
+ * <p>
+ * Os cascades são ordenados pelo custo medido (tratamento + detecção, em
+ * média móvel exponencial) dividido pela fração dos quadros em que detectam
+ * alguma coisa: os mais baratos e que mais encontram vão primeiro, já que são
+ * os que mais dão consenso cedo.
+ * <p>
+ * Pular o terceiro pode mudar o resultado (ele pode formar outro grupo, ou
+ * entrar na média do grupo escolhido). Para medir isso, a cada
+ * {@code intervaloAuditoria} consensos o terceiro roda mesmo assim, e a fusão
+ * {@linkplain EstruturaAmostras#sameResultWithout(ObjDetec.CascOrigin) compara}
+ * a amostra do quadro com e sem ele. A {@linkplain #getTaxaMudanca() taxa de
+ * mudança} e a {@linkplain #getEconomiaMs() economia} dizem se vale a pena.
+ * <p>
+ * A ordem e os custos são usados só pelo thread da detecção. Os contadores
+ * são lidos pelo relatório e pelo JMX, e as auditorias são registradas pelo
+ * thread da fusão.
+ */
+public class EscalonadorCascades implements EscalonadorCascadesMBean {
+
+    /**
+     * Peso de cada quadro nas médias móveis de custo e de detecção.
+     */
+    private static final double PESO = 0.05;
+    /**
+     * Fração de detecção mínima usada na ordenação, para que um cascade que
+     * nunca detecta não fique com custo infinito.
+     */
+    private static final double TAXA_MINIMA = 0.05;
+
+    private final int intervaloAuditoria;
+
+    /**
+     * Ordem dos cascades no próximo quadro, reusada.
+     */
+    private final ObjDetec.CascOrigin[] ordem = {ObjDetec.CascOrigin.Normal,
+        ObjDetec.CascOrigin.HSV, ObjDetec.CascOrigin.InRange};
+    /**
+     * Custo médio (ns) e fração de quadros com detecção de cada cascade,
+     * indexados pelo {@link ObjDetec.CascOrigin#id id} - 1.
+     */
+    private final double[] custo = new double[3];
+    private final double[] taxa = new double[3];
+    private final boolean[] medido = new boolean[3];
+    private int consensosSemAuditoria;
+
+    private final LongAdder quadros = new LongAdder();
+    private final LongAdder pulados = new LongAdder();
+    private final LongAdder auditorias = new LongAdder();
+    private final LongAdder mudancas = new LongAdder();
+    private final LongAdder economia = new LongAdder();
+
+    /**
+     * @param intervaloAuditoria Consensos entre dois quadros em que o
+     * terceiro cascade roda mesmo assim, para conferir se pulá-lo muda o
+     * resultado. Zero desliga a auditoria.
+     */
+    public EscalonadorCascades(int intervaloAuditoria) {
+        this.intervaloAuditoria = intervaloAuditoria;
+    }
+
+    /**
+     * Ordena os cascades para o próximo quadro. Os que ainda não foram
+     * medidos vão primeiro.
+     *
+     * @return Ordem dos cascades. O vetor é reusado e não deve ser alterado.
+     */
+    public ObjDetec.CascOrigin[] ordena() {
+        quadros.increment();
+        for (int i = 1; i < ordem.length; i++) {
+            ObjDetec.CascOrigin o = ordem[i];
+            int j = i;
+            for (; j > 0 && pontuacao(ordem[j - 1]) > pontuacao(o); j--)
+                ordem[j] = ordem[j - 1];
+            ordem[j] = o;
+        }
+        return ordem;
+    }
+
+    private double pontuacao(ObjDetec.CascOrigin orig) {
+        int i = orig.id - 1;
+        if (!medido[i])
+            return 0;
+        return custo[i] / Math.max(taxa[i], TAXA_MINIMA);
+    }
+
+    /**
+     * Registra uma execução de um cascade.
+     *
+     * @param orig Cascade executado.
+     * @param nanos Tempo do tratamento de imagem e da detecção.
+     * @param detectou Se o cascade encontrou algum objeto.
+     */
+    public void registra(ObjDetec.CascOrigin orig, long nanos, boolean detectou) {
+        int i = orig.id - 1;
+        double d = detectou ? 1 : 0;
+        if (!medido[i]) {
+            custo[i] = nanos;
+            taxa[i] = d;
+            medido[i] = true;
+            return;
+        }
+        custo[i] += (nanos - custo[i]) * PESO;
+        taxa[i] += (d - taxa[i]) * PESO;
+    }
+
+    /**
+     * Chamado quando os dois primeiros cascades concordam.
+     *
+     * @param terceiro Cascade que falta rodar.
+     * @return Verdadeiro se ele deve ser pulado, ou falso se este quadro é
+     * uma auditoria e ele deve rodar.
+     */
+    public boolean consenso(ObjDetec.CascOrigin terceiro) {
+        if (intervaloAuditoria > 0 && ++consensosSemAuditoria >= intervaloAuditoria) {
+            consensosSemAuditoria = 0;
+            return false;
+        }
+        pulados.increment();
+        economia.add((long) custo[terceiro.id - 1]);
+        return true;
+    }
+
+    /**
+     * Registra o resultado de uma auditoria, feita pela fusão.
+     *
+     * @param mudou Se a amostra do quadro seria outra sem o terceiro cascade.
+     */
+    public void registraAuditoria(boolean mudou) {
+        auditorias.increment();
+        if (mudou)
+            mudancas.increment();
+    }
+
+    /**
+     * Registra o escalonador no servidor JMX da plataforma, no domínio de
+     * {@link Metricas}.
+     */
+    public void registraMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName(Metricas.DOMINIO + ":type=Escalonador"));
+        } catch (JMException ex) {
+            System.err.println("Não foi possivel registrar o escalonador no JMX: " + ex);
+        }
+    }
+
+    /**
+     * Monta uma linha com os quadros em que o terceiro cascade foi pulado, o
+     * tempo economizado, as auditorias e a ordem atual. Os valores são
+     * acumulados desde o início.
+     *
+     * @return Texto do relatório.
+     */
+    public String relatorio() {
+        long q = getQuadros();
+        long a = getAuditorias();
+        return String.format("consenso: pulados=%d/%d economia=%.1fms auditorias=%d mudancas=%d (%.1f%%) ordem=%s,%s,%s",
+                getPulados(), q, getEconomiaMs(), a, getMudancas(), getTaxaMudanca() * 100,
+                ordem[0], ordem[1], ordem[2]);
+    }
+
+    @Override
+    public long getQuadros() {
+        return quadros.sum();
+    }
+
+    @Override
+    public long getPulados() {
+        return pulados.sum();
+    }
+
+    @Override
+    public double getEconomiaMs() {
+        return economia.sum() / 1e6;
+    }
+
+    @Override
+    public long getAuditorias() {
+        return auditorias.sum();
+    }
+
+    @Override
+    public long getMudancas() {
+        return mudancas.sum();
+    }
+
+    @Override
+    public double getTaxaMudanca() {
+        long a = auditorias.sum();
+        return a == 0 ? 0 : (double) mudancas.sum() / a;
+    }
+}
@@ -0,0 +1,38 @@
+
+/**
+ * Interface JMX de um {@link EscalonadorCascades}. Os valores são acumulados
+ * desde o início.
+ */
+public interface EscalonadorCascadesMBean {
+
+    /**
+     * @return Quadros escalonados.
+     */
+    long getQuadros();
+
+    /**
+     * @return Quadros em que o terceiro cascade foi pulado.
+     */
+    long getPulados();
+
+    /**
+     * @return Custo estimado dos cascades pulados, em ms.
+     */
+    double getEconomiaMs();
+
+    /**
+     * @return Quadros com consenso em que o terceiro cascade rodou mesmo
+     * assim, para conferência.
+     */
+    long getAuditorias();
+
+    /**
+     * @return Auditorias em que pular o terceiro cascade mudaria o resultado.
+     */
+    long getMudancas();
+
+    /**
+     * @return Fração das auditorias com mudança.
+     */
+    double getTaxaMudanca();
+}
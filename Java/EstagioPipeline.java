@@ -0,0 +1,144 @@
+
+/**
+ * Um estágio do {@linkplain PipelineDeteccao pipeline}. Roda em um thread
+ * próprio, retirando quadros da fila de entrada, aplicando a sua
+ * {@linkplain Etapa etapa} e passando o quadro para a fila de saída. Como cada
+ * estágio tem um único thread e as filas são FIFO, os quadros saem na mesma
+ * ordem em que entraram.
+ */
+public class EstagioPipeline implements Runnable {
+
+    /**
+     * Trabalho feito por um estágio em cada quadro.
+     */
+    public interface Etapa {
+
+        /**
+         * @param q Quadro a processar.
+         * @return Falso se o quadro deve ser descartado (volta para a lista de
+         * quadros livres em vez de seguir no pipeline).
+         * @throws InterruptedException Se o thread for interrompido.
+         */
+        boolean processa(Quadro q) throws InterruptedException;
+    }
+
+    private final String nome;
+    private final Etapa etapa;
+    private final FilaCircular<Quadro> entrada;
+    private final FilaCircular<Quadro> saida;
+    /**
+     * Para onde vão os quadros descartados, seja pela etapa ou pela política
+     * da fila de saída.
+     */
+    private final FilaCircular<Quadro> livres;
+
+    private volatile long processados;
+    private long processadosAmostra;
+    private long tempoAmostra = System.nanoTime();
+    private double vazao;
+
+    private Thread thread;
+
+    EstagioPipeline(String nome, Etapa etapa, FilaCircular<Quadro> entrada,
+            FilaCircular<Quadro> saida, FilaCircular<Quadro> livres) {
+        this.nome = nome;
+        this.etapa = etapa;
+        this.entrada = entrada;
+        this.saida = saida;
+        this.livres = livres;
+    }
+
+    void inicia() {
+        thread = new Thread(this, "pipeline-" + nome);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void para() {
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    /**
+     * Espera o thread do estágio terminar.
+     */
+    void aguarda() {
+        if (thread == null || thread == Thread.currentThread())
+            return;
+        boolean interrompido = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                interrompido = true;
+            }
+        }
+        if (interrompido)
+            Thread.currentThread().interrupt();
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Quadro q = entrada.take();
+                if (!etapa.processa(q)) {
+                    livres.put(q);
+                    continue;
+                }
+                processados++;
+                Quadro descartado = saida.put(q);
+                if (descartado != null) {
+                    Metricas.quadroDescartado();
+                    livres.put(descartado);
+                }
+            }
+        } catch (InterruptedException ex) {
+            //Pipeline parado
+        }
+    }
+
+    public String getNome() {
+        return nome;
+    }
+
+    /**
+     * @return Numero de quadros esperando na fila de entrada do estágio.
+     */
+    public int getProfundidadeFila() {
+        return entrada.size();
+    }
+
+    /**
+     * @return Total de quadros processados pelo estágio.
+     */
+    public long getProcessados() {
+        return processados;
+    }
+
+    /**
+     * Calcula a vazão (quadros por segundo) desde a última chamada.
+     *
+     * @return Quadros por segundo processados pelo estágio.
+     */
+    synchronized double amostraVazao() {
+        long agora = System.nanoTime();
+        long total = processados;
+        if (agora > tempoAmostra)
+            vazao = (total - processadosAmostra) * 1e9 / (agora - tempoAmostra);
+        processadosAmostra = total;
+        tempoAmostra = agora;
+        return vazao;
+    }
+
+    /**
+     * @return Vazão calculada na última {@link #amostraVazao() amostra}.
+     */
+    public synchronized double getVazao() {
+        return vazao;
+    }
+}
@@ -1,367 +1,669 @@
-
-import java.util.ArrayList;
-import org.opencv.core.MatOfRect;
-import org.opencv.core.Rect;
-
-/**
- * Classe usada para salvar e processar dados resultados de uma detecção do
- * {@linkplain org.opencv OpenCV} usando
- * {@linkplain org.opencv.objdetect.CascadeClassifier Cascade Classifier}. No
- * processamento são usados dados da detecção de 3 Cascade Classifiers
- * diferentes. Os resultados das detecções são comparados afim de reduzir os
- * erros (Falsos Positivos). Os cascades se diferenciam por possuir diferentes
- * tratamentos de imagem no seu treinamento, como a mudança de espaço de cores
- * para
- * {@linkplain org.opencv.imgproc.Imgproc#cvtColor(org.opencv.core.Mat, org.opencv.core.Mat, int) HSV}
- * e a transformação binária usando valores limiares com
- * {@linkplain org.opencv.core.Core#inRange(org.opencv.core.Mat, org.opencv.core.Scalar, org.opencv.core.Scalar, org.opencv.core.Mat) InRange()}.
- *
- * @author Pierre Alvim de Paula
- */
-public class EstruturaAmostras
-{
-
-    /**
-     * Lista para objetos encontrados com Cascade que não usa transformação.
-     *
-     * @see ObjDetec.CascOrigin#Normal
-     */
-    private ArrayList<ObjDetec> dNormal;
-    /**
-     * Lista para objetos encontrados com Cascade que usa "InRange" como
-     * transformação.
-     *
-     * @see ObjDetec.CascOrigin#InRange
-     */
-    private ArrayList<ObjDetec> dInRange;
-
-    /**
-     * Lista para objetos encontrados com Cascade que usa "HSV" como
-     * transformação.
-     *
-     * @see ObjDetec.CascOrigin#HSV
-     */
-    private ArrayList<ObjDetec> dHSV;
-
-    /**
-     * ()Lista bidimensional para salvar o objetos detectatos ao longo de varios
-     * frames. A lista externa tem como index, um tempo de frame
-     * ({@linkplain #frameTime frametime}), e a interna simplesmente contém os
-     * objetos que foram achados nesse tempo de frame. Objetos da lista interna
-     * com a flag {@linkplain ObjDetec#exact Exact} ligada, são considerados
-     * como amostras positivas verdadeiras, e são na verdade, uma mescla de
-     * amostras de diferentes cascades. Todos os elementos da lista interna tem
-     * {@linkplain ObjDetec#cascade Cascade de origem} {@linkplain ObjDetec.CascOrigin#Indef Indefinido}.
-     */
-    private ArrayList<ArrayList<ObjDetec>> dFramesTruePositive;
-
-    /**
-     * Valor interio que determina o index do frame atual, e que tem como limite
-     * maximo {@link #NUMFRAMES FRAME LIMIT}.
-     */
-    private int frameTime;
-    /**
-     * (SCALE of CONTAINER on TEST) Escala geral usada na função
-     * {@linkplain ObjDetec#isCenterInside(ObjDetec, double) isCenterInside()}
-     * para encontrar objetos proximos. É usado em
-     * {@linkplain #relateObjByCasc() relateObjsByCasc}.
-     */
-    private static final double SCALECONTAINER = 0.5;
-    /**
-     * (NUMBER of FRAMES) O numero total de frames que tem informação salva das
-     * amostras verdadeiras positivas. É indice máximo da lista
-     * {@linkplain #dFramesTruePositive FramesTruePositive}.
-     *
-     * @see #frameTime
-     * @see #frameAvance()
-     * @see #dFramesTruePositive
-     */
-    private int NUMFRAMES = 3;
-    
-    /**
-     * (LIMIT of DISTANCE for objects in diferent FRAMES) Limite de distância
-     * entre objetos.(Não usado)
-     */
-    private static final int LIMDSTFRAME = 10;
-
-    /**
-     * (NUMBER LIMIT of CASCADE found) Numero limite de cascades diferentes onde
-     * foram encontrado objetos similares para um amostra ser considerada
-     * verdadeira positiva.
-     *
-     * @see #relateObjByCasc(int) relateObjByCasc
-     */
-    private static final int NUMLIMCASC = 2;
-
-    /**
-     * Construtor padrão que inicializa as listas e inicia o tempo em 0.
-     */
-    public EstruturaAmostras()
-    {
-        this.frameTime = 0;
-        dFramesTruePositive = new ArrayList<>();
-        dNormal = new ArrayList<>();
-        dHSV = new ArrayList<>();
-        dInRange = new ArrayList<>();
-        int i;
-        for (i = 0; i < NUMFRAMES; i++)
-            dFramesTruePositive.add(new ArrayList<>());
-    }
-    
-    public EstruturaAmostras(int numFrames)
-    {
-    	this.NUMFRAMES = numFrames;
-        this.frameTime = 0;
-        dFramesTruePositive = new ArrayList<>();
-        dNormal = new ArrayList<>();
-        dHSV = new ArrayList<>();
-        dInRange = new ArrayList<>();
-        int i;
-        for (i = 0; i < NUMFRAMES; i++)
-            dFramesTruePositive.add(new ArrayList<>());
-    }
-
-    /**
-     * (SAVE OBJECTS into its list) Método para adicionar os objetos encontrados
-     * em suas listas especificas.
-     *
-     * @param det Matriz de Retangulos da detecção.
-     * @param orig Tipo do cascade usado na detecção.
-     * @throws Error Se a origem do tipo de detecção for
-     * {@linkplain ObjDetec.CascOrigin#Indef indefinida}.
-     * @see Rect OpenCV Rect
-     * @see ObjDetec.CascOrigin CascOrigin
-     * @see #dNormal dNormal
-     * @see #dHSV dHSV
-     * @see #dInRange dInRange
-     */
-    public void saveObjs(MatOfRect det, ObjDetec.CascOrigin orig)
-    {
-        for (Rect rect : det.toArray()) {
-            ObjDetec obj = new ObjDetec(rect, orig);
-            switch (orig) {
-                case Normal:
-                    dNormal.clear();
-                    obj.setCascade(orig);
-                    dNormal.add(obj);
-                    break;
-                case HSV:
-                    dHSV.clear();
-                    obj.setCascade(orig);
-                    dHSV.add(obj);
-                    break;
-                case InRange:
-                    dInRange.clear();
-                    obj.setCascade(orig);
-                    dInRange.add(obj);
-                    break;
-                case Indef:
-                    throw new Error("Não foi possivel salvar, pois o tipo de cascade é indefinido.");
-            }
-        }
-    }
-
-    /**
-     * (START ARRAYLIST) Inicializa ou limpa uma lista de
-     * {@linkplain ObjDetec objetos}.
-     *
-     * @param list Lista para iniciar.
-     */
-    private ArrayList startArray(ArrayList list)
-    {
-        if (list == null)
-            list = new ArrayList<>();
-        else
-            list.clear();
-
-        return list;
-    }
-
-    /**
-     * (RELATE all OBEJCTS BY similarity among CASCADES lists) Encontra
-     * elementos que estejam em mais de uma lista de cascades usando como
-     * semelhança o teste {@linkplain ObjDetec#isCenterInside(ObjDetec, double)
-     * isCenterInside}. Depois de encontrados, os elementos semelhates são
-     * transformados em um só pela média dos seus valores, usando
-     * {@linkplain #mergeObjsAvarage(java.util.ArrayList) mergeObjsAvarage}, e
-     * salvo com a flag {@linkplain ObjDetec#exact Exact} ligada. Os outros
-     * elementos também são salvos, mas sem junção e com a flag desligada. A
-     * checagem é feita com os elementos adicionados por
-     * {@linkplain #saveObjs(org.opencv.core.MatOfRect, ObjDetec.CascOrigin) saveObjs}.
-     *
-     * @param time Em qual tempo de frame será seram salvos.
-     * @see #saveObjs(org.opencv.core.MatOfRect, ObjDetec.CascOrigin)
-     */
-    private void relateObjByCasc(int time)
-    {
-
-        dFramesTruePositive.get(time).clear();
-        ArrayList<ObjDetec> all = new ArrayList<>();
-        all.addAll(dNormal);
-        all.addAll(dHSV);
-        all.addAll(dInRange);
-
-        for (int i = 0; i < all.size(); i++) {
-            ObjDetec obj1 = all.get(i);
-            all.remove(obj1); // Evitar que o objeto seja checado mais de uma vez, ou cheque ele msm
-            ArrayList<ObjDetec> aux = new ArrayList<>(); // lista para slavar amostras que são parecidas
-            for (int j = 0; j < all.size(); j++) {
-                ObjDetec obj2 = all.get(j);
-
-                if (obj1.isCenterInside(obj2, SCALECONTAINER) && obj1.getCascade() != obj2.getCascade()) //se está no centro e é de cascade diferente
-                {
-                    if (!aux.contains(obj2))
-                        aux.add(obj2);
-                    if (!aux.contains(obj1))
-                        aux.add(obj1);
-                }
-            }
-            if (!aux.isEmpty()) {
-                ObjDetec ob = mergeObjsAvarage(aux);  //criar um objeto da media dos detectados
-                if (aux.size() >= 2) // If it is found in 2 cascades set as "Exact"
-                    ob.setExact(true);
-
-                dFramesTruePositive.get(time).add(ob);
-            }
-        }
-        //Escolhe entre os possiveis verdadeiros positivos, o mais proximos das amostras anteriores.
-        if (!dFramesTruePositive.get(time).isEmpty()) {
-            ObjDetec ob = findBestPosSample(dFramesTruePositive.get(time));
-            dFramesTruePositive.get(time).clear();
-            dFramesTruePositive.get(time).add(ob);// mantém a lista somente com 1 verdadeiro Positivo 
-        }
-
-    }
-
-    /**
-     * Mesmo que {@linkplain #findConeByCasc(int) findConeByCasc(int time)},
-     * porém o tempo é assumido como o valor atual de
-     * {@linkplain #frameTime frametime}.
-     *
-     * @see #findConeByCasc(int) (especificar tempo)
-     */
-    private void relateObjByCasc()
-    {
-
-        relateObjByCasc(frameTime);
-    }
-
-    /**
-     * (FIND the BEST TRUE POSITIVE SAMPLE) Encontra dentro de uma lista, o
-     * objeto que mais se aproxima em
-     * {@linkplain ObjDetec#distanceTo(ObjDetec) distância} da média dos objetos
-     * salvos em {@linkplain #dFramesTruePositive dFramesTruePositive}.
-     *
-     * @param list Lista dos objetos a checar.
-     * @return Objeto que mais se aproxima da média dos salvos em
-     * {@linkplain #dFramesTruePositive dFramesTruePositive}.
-     */
-    private ObjDetec findBestPosSample(ArrayList<ObjDetec> list)
-    {
-        if (list.isEmpty())
-            return null;
-
-        boolean t = false;
-
-        for (ArrayList l : dFramesTruePositive)
-            if (!l.isEmpty())
-                t = true;
-
-        if (t)
-            return list.get(0);
-
-        ObjDetec campeao = null;
-        ObjDetec media = averageTruePositives();
-
-        for (ObjDetec ob : list)
-            if (!ob.isExact())
-                if (campeao == null)
-                    campeao = ob;
-                else if (ob.distanceTo(media) < campeao.distanceTo(media))
-                    campeao = ob;
-
-        return campeao;
-    }
-
-    /**
-     * (object from the AVAGE of the TRUE POSITIVES) Gera um objeto que é a
-     * média de todas as positivas salvas em
-     * {@linkplain #dFramesTruePositive dFramesTruePositive} usando a função
-     * {@linkplain #mergeObjsAvarage(java.util.ArrayList) mergeObjsAvarage()}.
-     *
-     * @return O objeto gerado da média.
-     */
-    private ObjDetec averageTruePositives()
-    {
-        ArrayList<ObjDetec> aux = new ArrayList<>();
-
-        for (ArrayList<ObjDetec> l : dFramesTruePositive)
-            if (!l.isEmpty())
-                if (l.get(0).isExact())
-                    aux.add(l.get(0));
-
-        //System.out.println("aux:" + aux.size());
-        return mergeObjsAvarage(aux);
-    }
-
-    /**
-     * (MERGE OBJECTS into an AVARAGE) Mescla varios objetos detectados em um
-     * único usando a média dos seus valores.
-     *
-     * @param list Lista de objetos a mesclar.
-     * @return Retorna o Objeto mesclado
-     */
-    private ObjDetec mergeObjsAvarage(ArrayList<ObjDetec> list)
-    {
-
-        if (list.isEmpty())//se está vazio n é possivel criar uma media
-
-            return null;
-
-        if (list.size() == 1)// se só existe um objeto a média é o próprio objeto
-
-            return list.get(0);
-
-        int h = 0, w = 0, x = 0, y = 0;
-        for (ObjDetec aux : list) {
-            h += aux.getHeight();
-            w += aux.getWidth();
-            x += aux.getCenter().x;
-            y += aux.getCenter().y;
-        }
-        h /= list.size();
-        w /= list.size();
-        x /= list.size();
-        y /= list.size();
-        return new ObjDetec(new ObjDetec.Point(x, y), h, w, ObjDetec.CascOrigin.Indef);
-        //O objeto é sempre de cascade indefinido
-    }
-
-    /**
-     * Incrementa o {@link #frameTime tempo de frame} obedecendo o limite de
-     * {@link #NUMFRAMES NUMFRAMES}.
-     */
-    private void frameAvance()
-    {
-        frameTime++;
-        if (frameTime >= NUMFRAMES)
-            frameTime = 0;
-    }
-
-    /**
-     * (EVALUATE SAMPLES)Processa as amostras salvas dos cascades, encontrando a
-     * melhor.
-     *
-     * @return
-     */
-    public ObjDetec evaluateSamples()
-    {
-        relateObjByCasc();
-        frameAvance();//Avanca frame
-
-        if (!dFramesTruePositive.get(frameTime).isEmpty())
-            //System.out.println(": " + dFramesTruePositive.get(frameTime).size());
-            return averageTruePositives(); //Retorna a média dos valores salvos
-        return null;
-    }
-}
+
+import java.nio.IntBuffer;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+
+/**
+ * Classe usada para salvar e processar dados resultados de uma detecção do
+ * {@linkplain org.opencv OpenCV} usando
+ * {@linkplain org.opencv.objdetect.CascadeClassifier Cascade Classifier}. No
+ * processamento são usados dados da detecção de 3 Cascade Classifiers
+ * diferentes. Os resultados das detecções são comparados afim de reduzir os
+ * erros (Falsos Positivos). Os cascades se diferenciam por possuir diferentes
+ * tratamentos de imagem no seu treinamento, como a mudança de espaço de cores
+ * para
+ * {@linkplain org.opencv.imgproc.Imgproc#cvtColor(org.opencv.core.Mat, org.opencv.core.Mat, int) HSV}
+ * e a transformação binária usando valores limiares com
+ * {@linkplain org.opencv.core.Core#inRange(org.opencv.core.Mat, org.opencv.core.Scalar, org.opencv.core.Scalar, org.opencv.core.Mat) InRange()}.
+ *
+ * @author Pierre Alvim de Paula
+ */
+public class EstruturaAmostras
+{
+
+    /**
+     * Lista para objetos encontrados com Cascade que não usa transformação.
+     *
+     * @see ObjDetec.CascOrigin#Normal
+     */
+    private final ArmazemDeteccoes dNormal = new ArmazemDeteccoes();
+    /**
+     * Lista para objetos encontrados com Cascade que usa "InRange" como
+     * transformação.
+     *
+     * @see ObjDetec.CascOrigin#InRange
+     */
+    private final ArmazemDeteccoes dInRange = new ArmazemDeteccoes();
+
+    /**
+     * Lista para objetos encontrados com Cascade que usa "HSV" como
+     * transformação.
+     *
+     * @see ObjDetec.CascOrigin#HSV
+     */
+    private final ArmazemDeteccoes dHSV = new ArmazemDeteccoes();
+
+    /**
+     * Vetor de listas para salvar o objetos detectatos ao longo de varios
+     * frames. O vetor tem como index, um tempo de frame
+     * ({@linkplain #frameTime frametime}), e a lista simplesmente contém os
+     * objetos que foram achados nesse tempo de frame. Objetos da lista
+     * com a flag {@linkplain ObjDetec#exact Exact} ligada, são considerados
+     * como amostras positivas verdadeiras, e são na verdade, uma mescla de
+     * amostras de diferentes cascades. Todos os elementos da lista tem
+     * {@linkplain ObjDetec#cascade Cascade de origem} {@linkplain ObjDetec.CascOrigin#Indef Indefinido}.
+     */
+    private ArmazemDeteccoes[] dFramesTruePositive;
+
+    /**
+     * Valor interio que determina o index do frame atual, e que tem como limite
+     * maximo {@link #NUMFRAMES FRAME LIMIT}.
+     */
+    private int frameTime;
+    /**
+     * (SCALE of CONTAINER on TEST) Escala geral usada na função
+     * {@linkplain ObjDetec#isCenterInside(ObjDetec, double) isCenterInside()}
+     * para encontrar objetos proximos. É usado em
+     * {@linkplain #relateObjByCasc() relateObjsByCasc}.
+     */
+    private static final double SCALECONTAINER = 0.5;
+    /**
+     * (NUMBER of FRAMES) O numero total de frames que tem informação salva das
+     * amostras verdadeiras positivas. É indice máximo da lista
+     * {@linkplain #dFramesTruePositive FramesTruePositive}.
+     *
+     * @see #frameTime
+     * @see #frameAvance()
+     * @see #dFramesTruePositive
+     */
+    private int NUMFRAMES = 3;
+
+    /**
+     * Somas das coordenadas e dos tamanhos das amostras verdadeiras
+     * positivas (com a flag {@linkplain ObjDetec#exact Exact}) salvas em
+     * {@linkplain #dFramesTruePositive dFramesTruePositive}, e quantas são.
+     * São atualizadas quando um frame é sobrescrito, para que a
+     * {@linkplain #averageTruePositives() média} não precise percorrer os
+     * {@link #NUMFRAMES NUMFRAMES} frames.
+     */
+    private long somaX, somaY, somaW, somaH;
+    private int exatos;
+    /**
+     * Numero de frames de {@link #dFramesTruePositive} com alguma amostra.
+     */
+    private int ocupados;
+    /**
+     * Numero de frames avaliados, usado como passo das janelas de
+     * {@link #trueSizeLimits(int[]) trueSizeLimits}.
+     */
+    private long avaliados;
+    private final ExtremosJanela larguras;
+    private final ExtremosJanela alturas;
+
+    /**
+     * (LIMIT of DISTANCE for objects in diferent FRAMES) Limite de distância
+     * entre objetos.(Não usado)
+     */
+    private static final int LIMDSTFRAME = 10;
+
+    /**
+     * (NUMBER LIMIT of CASCADE found) Numero limite de cascades diferentes onde
+     * foram encontrado objetos similares para um amostra ser considerada
+     * verdadeira positiva.
+     *
+     * @see #relateObjByCasc(int) relateObjByCasc
+     */
+    private static final int NUMLIMCASC = 2;
+
+    /**
+     * (DEFAULT IoU of SUPPRESSION) IoU da supressão usado por todos os que
+     * fundem as detecções (a câmera, o servidor, o lote, a reprodução e o
+     * benchmark), para que todos façam a mesma fusão.
+     *
+     * @see #setSuppression(double)
+     */
+    public static final double IOU_SUPRESSAO_PADRAO = 0.5;
+
+    /**
+     * (IoU of SUPPRESSION) IoU acima do qual duas detecções do mesmo cascade
+     * são tratadas como a mesma, e só a maior é salva. Zero desliga a
+     * supressão.
+     *
+     * @see #setSuppression(double)
+     */
+    private double iouSupressao = IOU_SUPRESSAO_PADRAO;
+
+    /**
+     * Listas e vetores de trabalho de
+     * {@linkplain #relateObjByCasc(int) relateObjByCasc}, reusados entre os
+     * quadros.
+     */
+    private final ArmazemDeteccoes all = new ArmazemDeteccoes();
+    private final ArmazemDeteccoes grupo = new ArmazemDeteccoes();
+    /**
+     * Possiveis verdadeiros positivos do frame atual. Só o escolhido é
+     * copiado para {@link #dFramesTruePositive}, para que as listas de cada
+     * frame não cresçam até o numero de candidatos.
+     */
+    private final ArmazemDeteccoes candidatos = new ArmazemDeteccoes();
+    /**
+     * Candidatos sem um dos cascades, de {@link #sameResultWithout(ObjDetec.CascOrigin)}.
+     */
+    private final ArmazemDeteccoes candidatosSem = new ArmazemDeteccoes();
+    private final GradeEspacial grade = new GradeEspacial();
+    private int[] vizinhos = new int[16];
+    /**
+     * Vetor onde {@linkplain #saveObjs(MatOfRect, ObjDetec.CascOrigin) saveObjs}
+     * lê os retângulos da matriz, reusado entre os quadros.
+     */
+    private int[] retangulos = new int[64];
+
+    /**
+     * Objeto devolvido por {@link #evaluateSamples()}, reusado a cada quadro.
+     */
+    private final ObjDetec resultado = new ObjDetec();
+
+    /**
+     * Construtor padrão que inicializa as listas e inicia o tempo em 0.
+     */
+    public EstruturaAmostras()
+    {
+        this(3);
+    }
+    
+    public EstruturaAmostras(int numFrames)
+    {
+    	this.NUMFRAMES = numFrames;
+        this.frameTime = 0;
+        dFramesTruePositive = new ArmazemDeteccoes[NUMFRAMES];
+        int i;
+        for (i = 0; i < NUMFRAMES; i++)
+            dFramesTruePositive[i] = new ArmazemDeteccoes(1);
+        larguras = new ExtremosJanela(NUMFRAMES);
+        alturas = new ExtremosJanela(NUMFRAMES);
+    }
+
+    /**
+     * (SAVE OBJECTS into its list) Método para adicionar os objetos encontrados
+     * em suas listas especificas. Os retângulos são lidos da matriz de uma
+     * vez para um vetor reusado, sem criar um {@link Rect} por detecção.
+     *
+     * @param det Matriz de Retangulos da detecção.
+     * @param orig Tipo do cascade usado na detecção.
+     * @throws Error Se a origem do tipo de detecção for
+     * {@linkplain ObjDetec.CascOrigin#Indef indefinida}.
+     * @see Rect OpenCV Rect
+     * @see ObjDetec.CascOrigin CascOrigin
+     * @see #dNormal dNormal
+     * @see #dHSV dHSV
+     * @see #dInRange dInRange
+     */
+    public void saveObjs(MatOfRect det, ObjDetec.CascOrigin orig)
+    {
+        int n = det.rows();
+        if (retangulos.length < n * 4)
+            retangulos = new int[n * 8];
+        if (n > 0)
+            det.get(0, 0, retangulos);
+        saveObjs(retangulos, n, orig);
+    }
+
+    /**
+     * (SAVE OBJECTS into its list) Substitui a lista de um cascade por todas
+     * as detecções passadas, guardadas em sequência no vetor como x, y,
+     * largura e altura (o formato de {@link MatOfRect}).
+     *
+     * @param det Retangulos da detecção, 4 inteiros por retangulo.
+     * @param n Numero de retangulos.
+     * @param orig Tipo do cascade usado na detecção.
+     * @throws Error Se a origem do tipo de detecção for
+     * {@linkplain ObjDetec.CascOrigin#Indef indefinida}.
+     */
+    public void saveObjs(int[] det, int n, ObjDetec.CascOrigin orig)
+    {
+        ArmazemDeteccoes lista = listaDe(orig);
+        lista.clear();
+        lista.ensureCapacity(n);
+        for (int i = 0; i < n * 4; i += 4)
+            lista.add(det[i] + det[i + 2] / 2, det[i + 1] + det[i + 3] / 2, det[i + 2], det[i + 3], orig.id, false);
+        suppress(lista);
+    }
+
+    /**
+     * (SAVE OBJECTS into its list) Mesmo que
+     * {@linkplain #saveObjs(int[], int, ObjDetec.CascOrigin) saveObjs(int[], ...)},
+     * lendo os retângulos restantes do buffer sem mudar a sua posição.
+     *
+     * @param det Retangulos da detecção, 4 inteiros por retangulo.
+     * @param orig Tipo do cascade usado na detecção.
+     * @throws Error Se a origem do tipo de detecção for
+     * {@linkplain ObjDetec.CascOrigin#Indef indefinida}.
+     */
+    public void saveObjs(IntBuffer det, ObjDetec.CascOrigin orig)
+    {
+        ArmazemDeteccoes lista = listaDe(orig);
+        int n = det.remaining() / 4;
+        lista.clear();
+        lista.ensureCapacity(n);
+        for (int i = det.position(), fim = i + n * 4; i < fim; i += 4)
+            lista.add(det.get(i) + det.get(i + 2) / 2, det.get(i + 1) + det.get(i + 3) / 2, det.get(i + 2), det.get(i + 3), orig.id, false);
+        suppress(lista);
+    }
+
+    /**
+     * (SAVE ALL OBJECTS) Salva de uma vez as detecções dos 3 cascades de um
+     * quadro, para que a fusão ({@link #evaluateSamples()}) rode logo depois
+     * que o último cascade termina.
+     *
+     * @param normal Detecções do cascade {@linkplain ObjDetec.CascOrigin#Normal Normal}.
+     * @param hsv Detecções do cascade {@linkplain ObjDetec.CascOrigin#HSV HSV}.
+     * @param inRange Detecções do cascade {@linkplain ObjDetec.CascOrigin#InRange InRange}.
+     */
+    public void saveAllObjs(MatOfRect normal, MatOfRect hsv, MatOfRect inRange)
+    {
+        saveObjs(normal, ObjDetec.CascOrigin.Normal);
+        saveObjs(hsv, ObjDetec.CascOrigin.HSV);
+        saveObjs(inRange, ObjDetec.CascOrigin.InRange);
+    }
+
+    /**
+     * (SET SUPPRESSION) Troca o IoU da supressão de não-máximos por cascade,
+     * que começa em {@link #IOU_SUPRESSAO_PADRAO}. O
+     * {@code detectMultiScale} costuma devolver várias caixas sobrepostas
+     * para o mesmo objeto, e sem a supressão todas entram na fusão e pesam
+     * na {@linkplain #mergeObjsAvarage(ArmazemDeteccoes, ArmazemDeteccoes) média}.
+     *
+     * @param iou IoU acima do qual a menor de duas detecções do mesmo cascade
+     * é descartada ao salvar, ou 0 para salvar todas.
+     * @see ArmazemDeteccoes#suprimeSobrepostos(double)
+     */
+    public void setSuppression(double iou)
+    {
+        this.iouSupressao = iou;
+    }
+
+    /**
+     * (SUPPRESS) Aplica a supressão à lista de um cascade recém salva.
+     */
+    private void suppress(ArmazemDeteccoes lista)
+    {
+        if (iouSupressao > 0)
+            Metricas.deteccoesSuprimidas(lista.suprimeSobrepostos(iouSupressao));
+    }
+
+    /**
+     * @return A lista do cascade.
+     * @throws Error Se a origem for {@linkplain ObjDetec.CascOrigin#Indef indefinida}.
+     */
+    private ArmazemDeteccoes listaDe(ObjDetec.CascOrigin orig)
+    {
+        switch (orig) {
+            case Normal:
+                return dNormal;
+            case HSV:
+                return dHSV;
+            case InRange:
+                return dInRange;
+            default:
+                throw new Error("Não foi possivel salvar, pois o tipo de cascade é indefinido.");
+        }
+    }
+
+    /**
+     * (RELATE all OBEJCTS BY similarity among CASCADES lists) Encontra
+     * elementos que estejam em mais de uma lista de cascades usando como
+     * semelhança o teste {@linkplain ObjDetec#isCenterInside(ObjDetec, double)
+     * isCenterInside}. Depois de encontrados, os elementos semelhates são
+     * transformados em um só pela média dos seus valores, usando
+     * {@linkplain #mergeObjsAvarage(ArmazemDeteccoes, ArmazemDeteccoes) mergeObjsAvarage}, e
+     * salvo com a flag {@linkplain ObjDetec#exact Exact} ligada. Os outros
+     * elementos também são salvos, mas sem junção e com a flag desligada. A
+     * checagem é feita com os elementos adicionados por
+     * {@linkplain #saveObjs(org.opencv.core.MatOfRect, ObjDetec.CascOrigin) saveObjs}.
+     * Os vizinhos de cada elemento são procurados numa
+     * {@linkplain GradeEspacial grade espacial} indexada pelo centro, em vez de
+     * comparar todos os pares, com o mesmo resultado de
+     * {@linkplain #relateObjByCascBruteForce(ArmazemDeteccoes) relateObjByCascBruteForce}.
+     *
+     * @param time Em qual tempo de frame será seram salvos.
+     * @see #saveObjs(org.opencv.core.MatOfRect, ObjDetec.CascOrigin)
+     */
+    private void relateObjByCasc(int time)
+    {
+
+        contabiliza(dFramesTruePositive[time], -1);
+        dFramesTruePositive[time].clear();
+        relate(candidatos, ObjDetec.CascOrigin.Indef);
+
+        //Escolhe entre os possiveis verdadeiros positivos, o mais proximos das amostras anteriores.
+        if (!candidatos.isEmpty()) {
+            int ob = findBestPosSample(candidatos);
+            if (ob >= 0)
+                dFramesTruePositive[time].add(candidatos, ob);// mantém a lista somente com 1 verdadeiro Positivo 
+        }
+        contabiliza(dFramesTruePositive[time], 1);
+
+        avaliados++;
+        larguras.avanca(avaliados);
+        alturas.avanca(avaliados);
+        ArmazemDeteccoes l = dFramesTruePositive[time];
+        if (!l.isEmpty() && l.isExact(0)) {
+            larguras.adiciona(avaliados, l.getWidth(0));
+            alturas.adiciona(avaliados, l.getHeight(0));
+        }
+
+    }
+
+    /**
+     * Soma (sinal 1) ou retira (sinal -1) a amostra de um frame de
+     * {@link #dFramesTruePositive} das somas usadas na média. Cada frame tem
+     * no máximo uma amostra.
+     */
+    private void contabiliza(ArmazemDeteccoes l, int sinal)
+    {
+        if (l.isEmpty())
+            return;
+        ocupados += sinal;
+        if (!l.isExact(0))
+            return;
+        exatos += sinal;
+        somaX += sinal * l.getX(0);
+        somaY += sinal * l.getY(0);
+        somaW += sinal * l.getWidth(0);
+        somaH += sinal * l.getHeight(0);
+    }
+
+    /**
+     * (RELATE) Junta as amostras salvas dos cascades e gera em destino os
+     * possiveis verdadeiros positivos do frame atual, como descrito em
+     * {@linkplain #relateObjByCasc(int) relateObjByCasc}.
+     *
+     * @param destino Lista que recebe os candidatos (é limpa antes).
+     * @param excluido Cascade cujas amostras são ignoradas, ou
+     * {@linkplain ObjDetec.CascOrigin#Indef Indef} para usar os três.
+     */
+    private void relate(ArmazemDeteccoes destino, ObjDetec.CascOrigin excluido)
+    {
+        destino.clear();
+        all.clear();
+        if (excluido != ObjDetec.CascOrigin.Normal)
+            all.addAll(dNormal);
+        if (excluido != ObjDetec.CascOrigin.HSV)
+            all.addAll(dHSV);
+        if (excluido != ObjDetec.CascOrigin.InRange)
+            all.addAll(dInRange);
+        int n = all.size();
+
+        // Indexa os centros numa grade com célula do tamanho do maior "container"
+        if (vizinhos.length < n)
+            vizinhos = new int[n * 2];
+        double maiorRaio = 1;
+        for (int i = 0; i < n; i++)
+            maiorRaio = Math.max(maiorRaio, Math.max(all.getWidth(i), all.getHeight(i)) * SCALECONTAINER / 2);
+        grade.indexa(all.x, all.y, n, (int) Math.ceil(maiorRaio));
+
+        for (int i = 0; i < n; i++) {
+            grupo.clear(); // lista para salvar amostras que são parecidas
+            int nVizinhos = grade.consulta(all.getX(i), all.getY(i), vizinhos);
+            for (int k = 0; k < nVizinhos; k++) {
+                int j = vizinhos[k];
+
+                if (j != i && all.isCenterInside(i, all, j, SCALECONTAINER) && all.getCascadeId(i) != all.getCascadeId(j)) //se está no centro e é de cascade diferente
+                    grupo.add(all, j);
+            }
+            if (!grupo.isEmpty()) {
+                grupo.add(all, i);
+                int ob = mergeObjsAvarage(grupo, destino);  //criar um objeto da media dos detectados
+                destino.setExact(ob, true); // Encontrado em pelo menos 2 cascades
+            }
+        }
+        assert sameCandidates(destino, relateObjByCascBruteForce(all)) : "Grade espacial diverge da busca completa";
+    }
+
+    /**
+     * (SAME RESULT WITHOUT a cascade) Confere se o frame atual escolheria a
+     * mesma amostra verdadeira positiva sem as detecções de um dos cascades.
+     * Deve ser chamado depois de salvar as amostras do frame e antes de
+     * {@link #evaluateSamples()}, e não muda o estado da estrutura.
+     * <p>
+     * Usado pelo {@link EscalonadorCascades} para medir se pular um cascade
+     * muda o resultado da fusão.
+     *
+     * @param orig Cascade cujas detecções são ignoradas.
+     * @return Verdadeiro se a amostra escolhida (ou a falta dela) é a mesma.
+     */
+    public boolean sameResultWithout(ObjDetec.CascOrigin orig)
+    {
+        relate(candidatos, ObjDetec.CascOrigin.Indef);
+        relate(candidatosSem, orig);
+        int a = findBestPosSample(candidatos);
+        int b = findBestPosSample(candidatosSem);
+        if (a < 0 || b < 0)
+            return a == b;
+        return candidatos.getX(a) == candidatosSem.getX(b) && candidatos.getY(a) == candidatosSem.getY(b)
+                && candidatos.getWidth(a) == candidatosSem.getWidth(b) && candidatos.getHeight(a) == candidatosSem.getHeight(b);
+    }
+
+    /**
+     * (CASCADES AGREE) Confere se as detecções de dois cascades já bastam
+     * para um verdadeiro positivo: se alguma detecção de um tem o centro
+     * dentro de alguma do outro, com a mesma regra de
+     * {@linkplain #relateObjByCasc(int) relateObjByCasc}. Os retângulos estão
+     * no formato da {@link MatOfRect} (x, y, largura, altura).
+     *
+     * @param a Retângulos do primeiro cascade.
+     * @param na Numero de retângulos em a.
+     * @param b Retângulos do segundo cascade.
+     * @param nb Numero de retângulos em b.
+     * @return Verdadeiro se algum par concorda.
+     */
+    public static boolean cascadesAgree(int[] a, int na, int[] b, int nb)
+    {
+        for (int i = 0; i < na * 4; i += 4) {
+            int ax = a[i] + a[i + 2] / 2, ay = a[i + 1] + a[i + 3] / 2;
+            for (int j = 0; j < nb * 4; j += 4) {
+                int bx = b[j] + b[j + 2] / 2, by = b[j + 1] + b[j + 3] / 2;
+                if (ObjDetec.isCenterInside(ax, ay, bx, by, b[j + 2], b[j + 3], SCALECONTAINER)
+                        || ObjDetec.isCenterInside(bx, by, ax, ay, a[i + 2], a[i + 3], SCALECONTAINER))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * (RELATE OBJECTS BY CASCADE using BRUTE FORCE) Versão de referência de
+     * {@linkplain #relateObjByCasc(int) relateObjByCasc}, que compara todos
+     * os pares de objetos. Cada objeto é comparado com todos os outros, e os
+     * objetos de cascades diferentes que contém o seu centro formam um grupo,
+     * que é mesclado pela média. É usada para conferir o resultado da grade
+     * espacial quando as assertions estão ligadas.
+     *
+     * @param all Objetos de todos os cascades.
+     * @return Objetos mesclados, na mesma ordem de all.
+     */
+    static ArmazemDeteccoes relateObjByCascBruteForce(ArmazemDeteccoes all)
+    {
+        ArmazemDeteccoes saida = new ArmazemDeteccoes();
+        ArmazemDeteccoes aux = new ArmazemDeteccoes();
+        for (int i = 0; i < all.size(); i++) {
+            aux.clear();
+            for (int j = 0; j < all.size(); j++)
+                if (j != i && all.isCenterInside(i, all, j, SCALECONTAINER) && all.getCascadeId(i) != all.getCascadeId(j))
+                    aux.add(all, j);
+            if (!aux.isEmpty()) {
+                aux.add(all, i);
+                saida.setExact(mergeObjsAvarage(aux, saida), true);
+            }
+        }
+        return saida;
+    }
+
+    /**
+     * Compara duas listas de objetos mesclados pela posição, tamanho e flag
+     * {@linkplain ObjDetec#exact Exact}.
+     */
+    static boolean sameCandidates(ArmazemDeteccoes a, ArmazemDeteccoes b)
+    {
+        if (a.size() != b.size())
+            return false;
+        for (int i = 0; i < a.size(); i++)
+            if (a.getX(i) != b.getX(i) || a.getY(i) != b.getY(i)
+                    || a.getWidth(i) != b.getWidth(i) || a.getHeight(i) != b.getHeight(i)
+                    || a.isExact(i) != b.isExact(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Mesmo que {@linkplain #findConeByCasc(int) findConeByCasc(int time)},
+     * porém o tempo é assumido como o valor atual de
+     * {@linkplain #frameTime frametime}.
+     *
+     * @see #findConeByCasc(int) (especificar tempo)
+     */
+    private void relateObjByCasc()
+    {
+
+        relateObjByCasc(frameTime);
+    }
+
+    /**
+     * (FIND the BEST TRUE POSITIVE SAMPLE) Escolhe, dentro de uma lista, a
+     * amostra positiva verdadeira do frame atual.
+     *
+     * @param list Lista dos objetos a checar.
+     * @return Indice do objeto escolhido, ou -1 se a lista está vazia.
+     */
+    private int findBestPosSample(ArmazemDeteccoes list)
+    {
+        if (list.isEmpty())
+            return -1;
+
+        return 0; // o primeiro candidato do frame atual é o escolhido
+    }
+
+    /**
+     * (object from the AVAGE of the TRUE POSITIVES) Gera um objeto que é a
+     * média de todas as positivas salvas em
+     * {@linkplain #dFramesTruePositive dFramesTruePositive}, com o mesmo
+     * resultado de
+     * {@linkplain #mergeObjsAvarage(ArmazemDeteccoes, ArmazemDeteccoes) mergeObjsAvarage()},
+     * a partir das {@linkplain #somaX somas} mantidas a cada frame.
+     *
+     * @return O objeto gerado da média, que é sempre o mesmo
+     * {@link #resultado} reusado, ou null.
+     */
+    private ObjDetec averageTruePositives()
+    {
+        if (exatos == 0)
+            return null;
+        // uma amostra só é copiada como está, com a flag Exact
+        resultado.set((int) (somaX / exatos), (int) (somaY / exatos), (int) (somaH / exatos), (int) (somaW / exatos),
+                ObjDetec.CascOrigin.Indef, exatos == 1);
+        return resultado;
+    }
+
+    /**
+     * (MERGE OBJECTS into an AVARAGE) Mescla varios objetos detectados em um
+     * único usando a média dos seus valores.
+     *
+     * @param list Lista de objetos a mesclar.
+     * @param destino Lista onde o objeto mesclado é incluído.
+     * @return Retorna o indice do Objeto mesclado em destino, ou -1 se list
+     * está vazia.
+     */
+    private static int mergeObjsAvarage(ArmazemDeteccoes list, ArmazemDeteccoes destino)
+    {
+
+        if (list.isEmpty())//se está vazio n é possivel criar uma media
+
+            return -1;
+
+        if (list.size() == 1)// se só existe um objeto a média é o próprio objeto
+
+            return destino.add(list, 0);
+
+        int h = 0, w = 0, x = 0, y = 0;
+        for (int i = 0; i < list.size(); i++) {
+            h += list.getHeight(i);
+            w += list.getWidth(i);
+            x += list.getX(i);
+            y += list.getY(i);
+        }
+        h /= list.size();
+        w /= list.size();
+        x /= list.size();
+        y /= list.size();
+        return destino.add(x, y, w, h, ObjDetec.CascOrigin.Indef.id, false);
+        //O objeto é sempre de cascade indefinido
+    }
+
+    /**
+     * (SIZE LIMITS of the TRUE POSITIVES) Encontra a menor e a maior largura e
+     * altura das amostras positivas verdadeiras salvas em
+     * {@linkplain #dFramesTruePositive dFramesTruePositive}. É usado para
+     * limitar os tamanhos procurados pelos cascades. Os extremos são mantidos
+     * em {@linkplain ExtremosJanela janelas} atualizadas a cada frame.
+     *
+     * @param limites Vetor de 4 posições onde são salvos a menor largura, a
+     * menor altura, a maior largura e a maior altura.
+     * @return Falso se não existe nenhuma amostra positiva verdadeira salva.
+     * @see EscalaAdaptativa
+     */
+    public boolean trueSizeLimits(int[] limites)
+    {
+        if (larguras.isEmpty())
+            return false;
+        limites[0] = larguras.min();
+        limites[1] = alturas.min();
+        limites[2] = larguras.max();
+        limites[3] = alturas.max();
+        return true;
+    }
+
+    /**
+     * Incrementa o {@link #frameTime tempo de frame} obedecendo o limite de
+     * {@link #NUMFRAMES NUMFRAMES}.
+     */
+    private void frameAvance()
+    {
+        frameTime++;
+        if (frameTime >= NUMFRAMES)
+            frameTime = 0;
+    }
+
+    /**
+     * (GET CANDIDATES) Todos os possiveis verdadeiros positivos (objetos
+     * encontrados em pelo menos {@link #NUMLIMCASC NUMLIMCASC} cascades) do
+     * último frame avaliado, antes da escolha de um só. Usado no
+     * {@linkplain RastreadorMultiplo rastreio de vários objetos}.
+     *
+     * @return Lista de trabalho, válida até a próxima chamada de
+     * {@link #evaluateSamples()}.
+     */
+    public ArmazemDeteccoes getCandidates()
+    {
+        return candidatos;
+    }
+
+    /**
+     * (EVALUATE SAMPLES)Processa as amostras salvas dos cascades, encontrando a
+     * melhor. Não aloca objetos: o objeto devolvido é sempre o mesmo, e é
+     * sobrescrito na próxima chamada. Quem precisa guardá-lo deve copiar os
+     * valores (ver {@link ObjDetec#set(ObjDetec)}).
+     *
+     * @return A média das amostras positivas verdadeiras dos ultimos frames,
+     * ou null se não há amostra no frame atual.
+     */
+    public ObjDetec evaluateSamples()
+    {
+        relateObjByCasc();
+        frameAvance();//Avanca frame
+
+        if (!dFramesTruePositive[frameTime].isEmpty())
+            //System.out.println(": " + dFramesTruePositive[frameTime].size());
+            return averageTruePositives(); //Retorna a média dos valores salvos
+        return null;
+    }
+}
@@ -0,0 +1,114 @@
+
+/**
+ * Resultado da fusão de um quadro, como lido de um {@link CanalDeteccoes}.
+ * O objeto é reusado por quem lê: cada leitura sobrescreve os valores.
+ */
+public class EventoDeteccao {
+
+    /**
+     * De onde veio o resultado do quadro.
+     */
+    public enum Estado {
+        /**
+         * Nenhum objeto no quadro.
+         */
+        Perdido,
+        /**
+         * Objeto confirmado pela fusão dos cascades.
+         */
+        Detectado,
+        /**
+         * Quadro sem detecção, com a posição prevista pelo
+         * {@link PreditorMovimento}.
+         */
+        Previsto,
+        /**
+         * Quadro sem detecção, repetindo o último resultado da fusão (cena
+         * sem mudança, ou sem preditor).
+         */
+        Repetido;
+
+        private static final Estado[] VALORES = values();
+
+        static Estado fromOrdinal(int i) {
+            return VALORES[i];
+        }
+    }
+
+    long sequencia;
+    long indice;
+    long tempoCaptura;
+    int x, y, largura, altura;
+    boolean exact;
+    Estado estado = Estado.Perdido;
+
+    /**
+     * @return Posição do evento no canal (0 para o primeiro publicado).
+     */
+    public long getSequencia() {
+        return sequencia;
+    }
+
+    /**
+     * @return Indice do quadro.
+     */
+    public long getIndice() {
+        return indice;
+    }
+
+    /**
+     * @return Momento da captura do quadro ({@link System#nanoTime()}).
+     */
+    public long getTempoCaptura() {
+        return tempoCaptura;
+    }
+
+    /**
+     * @return Se o quadro tem um objeto (estado diferente de
+     * {@linkplain Estado#Perdido Perdido}).
+     */
+    public boolean isEncontrado() {
+        return estado != Estado.Perdido;
+    }
+
+    /**
+     * @return Coordenada x do centro.
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * @return Coordenada y do centro.
+     */
+    public int getY() {
+        return y;
+    }
+
+    public int getLargura() {
+        return largura;
+    }
+
+    public int getAltura() {
+        return altura;
+    }
+
+    /**
+     * @return Se o objeto é um Verdadeiro Positivo
+     * ({@link ObjDetec#isExact()}).
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    public Estado getEstado() {
+        return estado;
+    }
+
+    @Override
+    public String toString() {
+        if (!isEncontrado())
+            return indice + ": " + estado;
+        return indice + ": " + estado + " (" + x + ", " + y + ") " + largura + "x" + altura + (exact ? " exact" : "");
+    }
+}
@@ -0,0 +1,128 @@
+
+/**
+ * Menor e maior valor entre os que entraram nos últimos {@code janela}
+ * passos, com custo O(1) amortizado por passo e sem alocação. Usa duas filas
+ * monotônicas (uma crescente para o mínimo e uma decrescente para o máximo):
+ * um valor novo remove do fim os que nunca mais podem ser o extremo, e os
+ * valores que saíram da janela são removidos do início.
+ * <p>
+ * Os passos podem não ter valor (quadros sem amostra), por isso cada valor
+ * guarda o passo em que entrou.
+ */
+public class ExtremosJanela {
+
+    private final int janela;
+    private final Fila minimos;
+    private final Fila maximos;
+
+    /**
+     * @param janela Numero de passos na janela.
+     */
+    public ExtremosJanela(int janela) {
+        this.janela = janela;
+        minimos = new Fila(janela);
+        maximos = new Fila(janela);
+    }
+
+    /**
+     * Remove os valores que saem da janela quando o passo começa. Deve ser
+     * chamado a cada passo, antes de {@link #adiciona(long, int)}.
+     *
+     * @param passo Passo atual (crescente).
+     */
+    public void avanca(long passo) {
+        long limite = passo - janela;
+        while (!minimos.vazia() && minimos.passoInicio() <= limite)
+            minimos.removeInicio();
+        while (!maximos.vazia() && maximos.passoInicio() <= limite)
+            maximos.removeInicio();
+    }
+
+    /**
+     * Inclui o valor do passo atual.
+     *
+     * @param passo Passo atual, o mesmo do último {@link #avanca(long)}.
+     * @param valor Valor.
+     */
+    public void adiciona(long passo, int valor) {
+        while (!minimos.vazia() && minimos.valorFim() >= valor)
+            minimos.removeFim();
+        minimos.adiciona(passo, valor);
+        while (!maximos.vazia() && maximos.valorFim() <= valor)
+            maximos.removeFim();
+        maximos.adiciona(passo, valor);
+    }
+
+    public boolean isEmpty() {
+        return minimos.vazia();
+    }
+
+    /**
+     * @return Menor valor da janela. Só é válido se a janela não está vazia.
+     */
+    public int min() {
+        return minimos.valorInicio();
+    }
+
+    /**
+     * @return Maior valor da janela. Só é válido se a janela não está vazia.
+     */
+    public int max() {
+        return maximos.valorInicio();
+    }
+
+    /**
+     * Fila circular de pares (passo, valor) com remoção nas duas pontas.
+     * Nunca tem mais itens que a janela, pois cada passo entra no máximo uma
+     * vez.
+     */
+    private static class Fila {
+
+        private final long[] passos;
+        private final int[] valores;
+        private int inicio;
+        private int tamanho;
+
+        Fila(int capacidade) {
+            passos = new long[capacidade];
+            valores = new int[capacidade];
+        }
+
+        boolean vazia() {
+            return tamanho == 0;
+        }
+
+        long passoInicio() {
+            return passos[inicio];
+        }
+
+        int valorInicio() {
+            return valores[inicio];
+        }
+
+        int valorFim() {
+            return valores[indice(tamanho - 1)];
+        }
+
+        void removeInicio() {
+            inicio = indice(1);
+            tamanho--;
+        }
+
+        void removeFim() {
+            tamanho--;
+        }
+
+        void adiciona(long passo, int valor) {
+            int i = indice(tamanho);
+            passos[i] = passo;
+            valores[i] = valor;
+            tamanho++;
+        }
+
+        private int indice(int deslocamento) {
+            int i = inicio + deslocamento;
+            return i >= passos.length ? i - passos.length : i;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+
+/**
+ * Fila circular de tamanho fixo usada para ligar os estágios do
+ * {@linkplain PipelineDeteccao pipeline}. Quando a fila está cheia, o
+ * comportamento depende da {@linkplain Politica política} escolhida. A fila
+ * usa o monitor do próprio objeto (wait/notify) para não alocar nada ao
+ * inserir ou remover, mesmo quando precisa esperar.
+ *
+ * @param <T> Tipo dos elementos guardados.
+ */
+public class FilaCircular<T> {
+
+    /**
+     * O que fazer quando um elemento é inserido com a fila cheia.
+     */
+    public enum Politica {
+        /**
+         * Espera até abrir espaço na fila.
+         */
+        Bloquear,
+        /**
+         * Descarta o elemento mais antigo para dar lugar ao novo.
+         */
+        DescartarAntigo
+    }
+
+    private final Object[] itens;
+    private final Politica politica;
+    private int inicio;
+    private int tamanho;
+    private long descartados;
+
+    /**
+     * @param capacidade Numero máximo de elementos.
+     * @param politica Política usada quando a fila está cheia.
+     */
+    public FilaCircular(int capacidade, Politica politica) {
+        if (capacidade < 1)
+            throw new IllegalArgumentException("A capacidade da fila deve ser pelo menos 1.");
+        this.itens = new Object[capacidade];
+        this.politica = politica;
+    }
+
+    /**
+     * Insere um elemento no fim da fila.
+     *
+     * @param item Elemento a inserir.
+     * @return O elemento descartado para dar lugar ao novo, ou null se nenhum
+     * foi descartado.
+     * @throws InterruptedException Se o thread for interrompido enquanto
+     * espera por espaço.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T put(T item) throws InterruptedException {
+        T descartado = null;
+        if (tamanho == itens.length) {
+            if (politica == Politica.Bloquear) {
+                while (tamanho == itens.length)
+                    wait();
+            } else {
+                descartado = (T) itens[inicio];
+                itens[inicio] = null;
+                inicio = (inicio + 1) % itens.length;
+                tamanho--;
+                descartados++;
+            }
+        }
+        itens[(inicio + tamanho) % itens.length] = item;
+        tamanho++;
+        notifyAll();
+        return descartado;
+    }
+
+    /**
+     * Remove o elemento mais antigo, esperando se a fila estiver vazia.
+     *
+     * @return Elemento removido.
+     * @throws InterruptedException Se o thread for interrompido enquanto
+     * espera.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T take() throws InterruptedException {
+        while (tamanho == 0)
+            wait();
+        T item = (T) itens[inicio];
+        itens[inicio] = null;
+        inicio = (inicio + 1) % itens.length;
+        tamanho--;
+        notifyAll();
+        return item;
+    }
+
+    /**
+     * @return Quantidade de elementos na fila no momento.
+     */
+    public synchronized int size() {
+        return tamanho;
+    }
+
+    public int getCapacidade() {
+        return itens.length;
+    }
+
+    public Politica getPolitica() {
+        return politica;
+    }
+
+    /**
+     * @return Total de elementos descartados por falta de espaço.
+     */
+    public synchronized long getDescartados() {
+        return descartados;
+    }
+}
@@ -0,0 +1,303 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Pula a detecção nos quadros em que a cena não mudou. Cada quadro é
+ * reduzido para {@link #larguraReduzida} pixels de largura, em tons de cinza,
+ * e comparado com uma referência em blocos de {@link #bloco} x {@link #bloco}
+ * pixels: um bloco mudou quando a diferença média dos seus pixels passa de
+ * {@link #limiar}.
+ * <ul>
+ * <li>Sem bloco mudado, os cascades não rodam e o resultado do quadro é o
+ * {@linkplain #getUltimoResultado() último resultado da fusão}
+ * ({@link PlanoDeteccao#isSemMudanca()}).</li>
+ * <li>Com alguns blocos mudados, a {@linkplain PlanoDeteccao#getRoi() região de
+ * busca} é o retângulo que envolve esses blocos (com um bloco de margem) e o
+ * último objeto confirmado, para que um objeto parado não seja perdido
+ * porque só outra parte da cena mudou. O {@link RastreadorROI}, se estiver
+ * rastreando, junta a essa região a janela em volta do objeto.</li>
+ * <li>Com todos os blocos mudados, o quadro inteiro é varrido.</li>
+ * </ul>
+ * A referência de um bloco só é atualizada quando ele é varrido, então uma
+ * mudança lenta (da iluminação, por exemplo) se acumula até passar do limiar.
+ * Como os planejadores seguintes ainda podem trocar a região, e as filas do
+ * {@link PipelineDeteccao} podem descartar o quadro antes da detecção, isso é
+ * feito em {@link #confirma(Quadro)}, quando o quadro chega à fusão, com a
+ * região final. A imagem reduzida vai junto com o {@link Quadro}. Um bloco
+ * mudado que ficou fora da região, ou que só mudou em um quadro descartado,
+ * continua mudado nos quadros seguintes; os quadros capturados enquanto um
+ * quadro está a caminho da fusão também veem a mudança dele, e a varrem de
+ * novo. Mesmo assim, o quadro inteiro é varrido a cada
+ * {@link #intervaloVarredura} quadros no máximo.
+ * <p>
+ * Como o {@link PreditorMovimento}, os métodos são sincronizados porque o
+ * planejamento é feito na captura e a atualização na fusão, em threads
+ * diferentes.
+ */
+public class FiltroMovimento {
+
+    /**
+     * Os lados da região são arredondados para múltiplos desse valor, como no
+     * {@link RastreadorROI}.
+     */
+    private static final int QUANTIZACAO = 32;
+
+    /**
+     * Largura da imagem comparada, em pixels.
+     */
+    private final int larguraReduzida;
+    /**
+     * Lado do bloco, em pixels da imagem reduzida.
+     */
+    private final int bloco;
+    /**
+     * Diferença média por pixel (0 a 255) acima da qual um bloco mudou.
+     */
+    private final double limiar;
+    /**
+     * Numero máximo de quadros seguidos sem varrer o quadro inteiro.
+     */
+    private final int intervaloVarredura;
+
+    private final Size tamanho = new Size();
+    private final Mat reduzida = new Mat();
+    private final Mat cinza = new Mat();
+    private byte[] referencia = new byte[0];
+    private int largura, altura;
+    /**
+     * Mapa dos blocos mudados no último quadro planejado, linha por linha.
+     */
+    private boolean[] mudou = new boolean[0];
+    private int blocosX, blocosY;
+    /**
+     * Blocos mudados no último quadro e o retângulo que os envolve, em
+     * blocos.
+     */
+    private int numMudados, minBx, minBy, maxBx, maxBy;
+    private int quadrosSemVarredura;
+
+    private final ObjDetec resultado = new ObjDetec();
+    private boolean temResultado;
+
+    private long quadros, pulados, recortados;
+
+    /**
+     * @param larguraReduzida Largura da imagem comparada, em pixels.
+     * @param bloco Lado do bloco, em pixels da imagem reduzida.
+     * @param limiar Diferença média por pixel (0 a 255) acima da qual um
+     * bloco mudou.
+     * @param intervaloVarredura A cada quantos quadros o quadro inteiro é
+     * varrido mesmo sem mudança.
+     */
+    public FiltroMovimento(int larguraReduzida, int bloco, double limiar, int intervaloVarredura) {
+        this.larguraReduzida = larguraReduzida;
+        this.bloco = Math.max(1, bloco);
+        this.limiar = limiar;
+        this.intervaloVarredura = Math.max(1, intervaloVarredura);
+    }
+
+    /**
+     * Compara o quadro com a referência e marca no plano se os cascades rodam
+     * e em qual região. O plano já deve estar
+     * {@linkplain PlanoDeteccao#limpa() limpo} e com a detecção ligada.
+     *
+     * @param q Quadro a planejar, com a imagem normal capturada.
+     */
+    public synchronized void planeja(Quadro q) {
+        Mat normal = q.getNormal();
+        tamanho.width = larguraReduzida;
+        tamanho.height = Math.max(1, Math.round((double) normal.rows() * larguraReduzida / normal.cols()));
+        Imgproc.resize(normal, reduzida, tamanho, 0, 0, Imgproc.INTER_AREA);
+        Imgproc.cvtColor(reduzida, cinza, Imgproc.COLOR_BGR2GRAY);
+        boolean nova = carrega(cinza.cols(), cinza.rows());
+        byte[] atual = q.getCinzaMovimento(largura * altura);
+        cinza.get(0, 0, atual);
+        quadros++;
+
+        comparaBlocos(atual);
+        if (nova || quadrosSemVarredura + 1 >= intervaloVarredura || numMudados == blocosX * blocosY)
+            return; //Varre o quadro inteiro
+        quadrosSemVarredura++;
+        PlanoDeteccao plano = q.getPlano();
+        if (numMudados == 0) {
+            plano.setDetectar(false);
+            plano.setSemMudanca(true);
+            pulados++;
+            return;
+        }
+
+        if (recorta(plano.getRoi(), normal.cols(), normal.rows()))
+            recortados++;
+    }
+
+    /**
+     * Atualiza a referência com a imagem reduzida do quadro, nos blocos que
+     * os cascades varreram: os que ficaram inteiros dentro da região de busca
+     * final, ou todos se não há região. Deve ser chamado na fusão, na ordem
+     * dos quadros, só para os quadros que chegaram lá.
+     *
+     * @param q Quadro já detectado.
+     */
+    public synchronized void confirma(Quadro q) {
+        PlanoDeteccao plano = q.getPlano();
+        byte[] atual = q.getCinzaMovimento();
+        if (!plano.isDetectar() || atual.length != referencia.length)
+            return; //Sem detecção, ou planejado antes de o tamanho mudar
+        if (!plano.temRoi()) {
+            System.arraycopy(atual, 0, referencia, 0, atual.length);
+            quadrosSemVarredura = 0;
+            return;
+        }
+
+        //Blocos inteiros dentro da região, convertida para a imagem reduzida
+        Rect roi = plano.getRoi();
+        long lq = q.getNormal().cols(), aq = q.getNormal().rows();
+        int bx0 = (int) ((roi.x * largura + bloco * lq - 1) / (bloco * lq));
+        int by0 = (int) ((roi.y * altura + bloco * aq - 1) / (bloco * aq));
+        int bx1 = roi.x + roi.width >= lq ? blocosX : (int) ((roi.x + roi.width) * largura / (bloco * lq));
+        int by1 = roi.y + roi.height >= aq ? blocosY : (int) ((roi.y + roi.height) * altura / (bloco * aq));
+        for (int by = by0; by < by1; by++) {
+            int y0 = by * bloco, y1 = Math.min(y0 + bloco, altura);
+            int x0 = bx0 * bloco, n = Math.min(bx1 * bloco, largura) - x0;
+            for (int y = y0; y < y1 && n > 0; y++)
+                System.arraycopy(atual, y * largura + x0, referencia, y * largura + x0, n);
+        }
+    }
+
+    /**
+     * Guarda o resultado da fusão de um quadro detectado, para repeti-lo nos
+     * quadros sem mudança.
+     *
+     * @param r Amostra positiva verdadeira do quadro, ou null.
+     */
+    public synchronized void atualiza(ObjDetec r) {
+        temResultado = r != null;
+        if (temResultado)
+            resultado.set(r);
+    }
+
+    /**
+     * @return O último resultado da fusão, que é sempre o mesmo objeto
+     * reusado, ou null.
+     */
+    public synchronized ObjDetec getUltimoResultado() {
+        return temResultado ? resultado : null;
+    }
+
+    /**
+     * @param bx Coluna do bloco.
+     * @param by Linha do bloco.
+     * @return Se o bloco mudou no último quadro planejado.
+     */
+    public synchronized boolean isMudou(int bx, int by) {
+        return mudou[by * blocosX + bx];
+    }
+
+    public synchronized int getBlocosX() {
+        return blocosX;
+    }
+
+    public synchronized int getBlocosY() {
+        return blocosY;
+    }
+
+    /**
+     * @return Fração dos quadros pulados e dos detectados só em uma região,
+     * desde o início.
+     */
+    public synchronized String relatorio() {
+        double n = Math.max(1, quadros);
+        return String.format("movimento: %d quadros, %.1f%% sem mudança, %.1f%% em região", quadros,
+                100 * pulados / n, 100 * recortados / n);
+    }
+
+    /**
+     * Garante os vetores para uma imagem reduzida de w x h.
+     *
+     * @return Se o tamanho mudou, e a referência não vale mais.
+     */
+    private boolean carrega(int w, int h) {
+        if (w == largura && h == altura)
+            return false;
+        largura = w;
+        altura = h;
+        referencia = new byte[w * h];
+        blocosX = (w + bloco - 1) / bloco;
+        blocosY = (h + bloco - 1) / bloco;
+        mudou = new boolean[blocosX * blocosY];
+        return true;
+    }
+
+    /**
+     * Preenche o {@link #mudou mapa} comparando a imagem do quadro com a
+     * {@link #referencia}, e o retângulo dos blocos mudados.
+     */
+    private void comparaBlocos(byte[] atual) {
+        numMudados = 0;
+        minBx = minBy = Integer.MAX_VALUE;
+        maxBx = maxBy = -1;
+        for (int by = 0; by < blocosY; by++) {
+            int y0 = by * bloco, y1 = Math.min(y0 + bloco, altura);
+            for (int bx = 0; bx < blocosX; bx++) {
+                int x0 = bx * bloco, x1 = Math.min(x0 + bloco, largura);
+                int soma = 0;
+                for (int y = y0; y < y1; y++)
+                    for (int i = y * largura + x0, fim = y * largura + x1; i < fim; i++)
+                        soma += Math.abs((atual[i] & 0xff) - (referencia[i] & 0xff));
+                boolean m = soma > limiar * (y1 - y0) * (x1 - x0);
+                mudou[by * blocosX + bx] = m;
+                if (m) {
+                    numMudados++;
+                    minBx = Math.min(minBx, bx);
+                    minBy = Math.min(minBy, by);
+                    maxBx = Math.max(maxBx, bx);
+                    maxBy = Math.max(maxBy, by);
+                }
+            }
+        }
+    }
+
+    /**
+     * Define a região de busca: os blocos mudados com um bloco de margem,
+     * mais o último objeto confirmado, em coordenadas do quadro.
+     *
+     * @return Falso se a região cobre o quadro inteiro.
+     */
+    private boolean recorta(Rect roi, int larguraQuadro, int alturaQuadro) {
+        double ex = (double) larguraQuadro / largura;
+        double ey = (double) alturaQuadro / altura;
+        int x0 = (int) ((minBx - 1) * bloco * ex);
+        int y0 = (int) ((minBy - 1) * bloco * ey);
+        int x1 = (int) Math.ceil((maxBx + 2) * bloco * ex);
+        int y1 = (int) Math.ceil((maxBy + 2) * bloco * ey);
+        if (temResultado) {
+            x0 = Math.min(x0, resultado.getCenter().x - resultado.getWidth() / 2);
+            y0 = Math.min(y0, resultado.getCenter().y - resultado.getHeight() / 2);
+            x1 = Math.max(x1, resultado.getCenter().x + resultado.getWidth() / 2);
+            y1 = Math.max(y1, resultado.getCenter().y + resultado.getHeight() / 2);
+        }
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        int w = quantiza(Math.min(x1, larguraQuadro) - x0, larguraQuadro);
+        int h = quantiza(Math.min(y1, alturaQuadro) - y0, alturaQuadro);
+        if (w >= larguraQuadro && h >= alturaQuadro)
+            return false;
+        roi.width = w;
+        roi.height = h;
+        roi.x = Math.min(x0, larguraQuadro - w);
+        roi.y = Math.min(y0, alturaQuadro - h);
+        return true;
+    }
+
+    private static int quantiza(int tamanho, int maximo) {
+        int t = ((tamanho + QUANTIZACAO - 1) / QUANTIZACAO) * QUANTIZACAO;
+        return Math.min(t, maximo);
+    }
+
+    public synchronized void release() {
+        reduzida.release();
+        cinza.release();
+    }
+}
@@ -0,0 +1,188 @@
+
+import org.opencv.videoio.VideoCapture;
+
+/**
+ * Uma fonte de vídeo (câmera ou arquivo) processada pelo
+ * {@link ServidorDeteccao}. Cada fluxo tem a sua captura, o seu
+ * {@link Quadro} e todo o estado que depende dos quadros anteriores
+ * ({@link EstruturaAmostras}, {@link RastreadorROI} e
+ * {@link EscalaAdaptativa}), e só os detectores são emprestados de um
+ * {@link PoolDetectores} compartilhado.
+ * <p>
+ * O servidor nunca processa dois quadros do mesmo fluxo ao mesmo tempo, então
+ * os quadros são fundidos em ordem sem precisar de sincronização. Os campos
+ * das estatísticas são lidos pelo thread do relatório.
+ */
+public class FluxoDeteccao {
+
+    private final String nome;
+    private final String fonte;
+    private final VideoCapture cap = new VideoCapture();
+    private final Quadro quadro = new Quadro();
+    private final EstruturaAmostras amostras;
+    private final RastreadorROI rastreador;
+    private final EscalaAdaptativa escala;
+    private long numQuadro;
+
+    private volatile long processados;
+    private volatile long latenciaTotal;
+    private volatile long latenciaMaxima;
+    private long processadosAmostra;
+    private long latenciaAmostra;
+    private long tempoAmostra = System.nanoTime();
+    private double vazao;
+    private double latenciaMedia;
+
+    /**
+     * @param nome Nome do fluxo, usado no relatório.
+     * @param fonte Indice da câmera ou caminho do arquivo de vídeo.
+     * @param numFrames Numero de quadros guardados na
+     * {@link EstruturaAmostras}.
+     * @param rastreador Rastreador da região de busca, ou null.
+     * @param escala Escala adaptativa, ou null.
+     */
+    public FluxoDeteccao(String nome, String fonte, int numFrames, RastreadorROI rastreador, EscalaAdaptativa escala) {
+        this.nome = nome;
+        this.fonte = fonte;
+        this.amostras = new EstruturaAmostras(numFrames);
+        this.rastreador = rastreador;
+        this.escala = escala;
+    }
+
+    /**
+     * Troca o IoU da supressão de não-máximos do fluxo.
+     *
+     * @param iou IoU, ou 0 para desligar.
+     * @see EstruturaAmostras#setSuppression(double)
+     */
+    public void setSupressao(double iou) {
+        amostras.setSuppression(iou);
+    }
+
+    /**
+     * Abre a fonte. Um texto só com dígitos é o indice de uma câmera, e
+     * qualquer outro é o caminho de um arquivo de vídeo.
+     *
+     * @return Se a fonte foi aberta.
+     */
+    public boolean abre() {
+        if (fonte.matches("\\d+"))
+            cap.open(Integer.parseInt(fonte));
+        else
+            cap.open(fonte);
+        return cap.isOpened();
+    }
+
+    /**
+     * Processa um quadro do fluxo: captura, detecção com um detector do pool
+     * e fusão.
+     *
+     * @param detectores Pool de onde o detector é emprestado.
+     * @return Falso se a fonte terminou.
+     * @throws InterruptedException Se o thread for interrompido enquanto
+     * espera um detector.
+     */
+    public boolean processa(PoolDetectores detectores) throws InterruptedException {
+        long inicio = System.nanoTime();
+        if (!cap.read(quadro.getNormal()) || quadro.getNormal().empty())
+            return false;
+        Metricas.CAPTURA.registraDesde(inicio);
+        quadro.setIndice(numQuadro++);
+        quadro.setTempoCaptura(System.nanoTime());
+        quadro.getPlano().limpa();
+        if (rastreador != null)
+            rastreador.planeja(quadro);
+        if (escala != null)
+            escala.planeja(quadro);
+
+        DetectorCascades detector = detectores.obtem();
+        try {
+            detector.detecta(quadro);
+        } finally {
+            detectores.devolve(detector);
+        }
+
+        amostras.saveAllObjs(quadro.getDetNormal(), quadro.getDetHSV(), quadro.getDetInRange());
+        inicio = System.nanoTime();
+        quadro.setResultado(amostras.evaluateSamples());
+        Metricas.FUSAO.registraDesde(inicio);
+        if (rastreador != null)
+            rastreador.atualiza(quadro.getResultado(), quadro.getIndice());
+        if (escala != null)
+            escala.atualiza(amostras);
+
+        Metricas.quadroEntregue(quadro);
+        long latencia = System.nanoTime() - quadro.getTempoCaptura();
+        latenciaTotal += latencia;
+        if (latencia > latenciaMaxima)
+            latenciaMaxima = latencia;
+        processados++;
+        return true;
+    }
+
+    public String getNome() {
+        return nome;
+    }
+
+    /**
+     * @return Quadro com o último resultado. Só deve ser lido entre duas
+     * chamadas de {@link #processa(PoolDetectores) processa()}.
+     */
+    public Quadro getQuadro() {
+        return quadro;
+    }
+
+    public long getProcessados() {
+        return processados;
+    }
+
+    /**
+     * Calcula a vazão e a latência média (da captura ao fim da fusão) desde a
+     * última chamada.
+     *
+     * @return Quadros por segundo processados pelo fluxo.
+     */
+    synchronized double amostraVazao() {
+        long agora = System.nanoTime();
+        long total = processados;
+        long latencia = latenciaTotal;
+        if (agora > tempoAmostra)
+            vazao = (total - processadosAmostra) * 1e9 / (agora - tempoAmostra);
+        if (total > processadosAmostra)
+            latenciaMedia = (latencia - latenciaAmostra) / 1e6 / (total - processadosAmostra);
+        processadosAmostra = total;
+        latenciaAmostra = latencia;
+        tempoAmostra = agora;
+        return vazao;
+    }
+
+    /**
+     * @return Vazão calculada na última {@link #amostraVazao() amostra}.
+     */
+    public synchronized double getVazao() {
+        return vazao;
+    }
+
+    /**
+     * @return Latência média na última {@link #amostraVazao() amostra}, em ms.
+     */
+    public synchronized double getLatenciaMedia() {
+        return latenciaMedia;
+    }
+
+    /**
+     * @return Maior latência desde o início, em ms.
+     */
+    public double getLatenciaMaxima() {
+        return latenciaMaxima / 1e6;
+    }
+
+    /**
+     * Libera a captura e a memória nativa do quadro. Só deve ser chamado
+     * quando o fluxo não estiver sendo processado.
+     */
+    public void release() {
+        cap.release();
+        quadro.release();
+    }
+}
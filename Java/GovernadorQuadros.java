@@ -0,0 +1,218 @@
+/**
+ * Mantém a taxa de quadros e a latência dentro de uma meta, trocando
+ * qualidade da detecção por tempo quando o custo por quadro sobe (cenas com
+ * muitos objetos, por exemplo). A cada {@link #janela} quadros entregues são
+ * medidos o fps, a latência de cada quadro (da captura à entrega) e o custo
+ * médio da captura e de cada cascade, a partir dos histogramas das
+ * {@link Metricas}.
+ * <p>
+ * Se a latência passou do orçamento em mais de {@link #FRACAO_ATRASADOS} dos
+ * quadros, ou se o fps ficou abaixo da meta sem que a câmera seja o limite, o
+ * governador desce um {@linkplain Nivel nível}. Se sobra folga por
+ * {@link #JANELAS_FOLGA} janelas seguidas, ele sobe um nível. Os níveis são
+ * cumulativos: cada um mantém as reduções dos anteriores. Toda troca de nível
+ * é impressa com o motivo.
+ * <p>
+ * O {@link #planeja(Quadro) planejamento} é feito na captura e a medição na
+ * entrega, em threads diferentes, por isso os métodos são sincronizados.
+ */
+public class GovernadorQuadros {
+
+    /**
+     * Níveis de degradação, do mais completo ao mais barato.
+     */
+    public enum Nivel {
+        /**
+         * Detecção sem reduções.
+         */
+        Completo,
+        /**
+         * Imagem de detecção reduzida por {@link #FATOR_REDUCAO}.
+         */
+        EscalaReduzida,
+        /**
+         * Sem o cascade mais caro da última medição.
+         */
+        SemCascade,
+        /**
+         * Passos maiores entre os tamanhos procurados pelo
+         * {@code detectMultiScale} ({@link #FATOR_ESCALA_GROSSO}).
+         */
+        FatorGrosso,
+        /**
+         * Detecção só em um a cada {@link #INTERVALO_DETECCAO} quadros.
+         */
+        Intervalo
+    }
+
+    private static final double FATOR_REDUCAO = 0.75;
+    private static final double FATOR_ESCALA_GROSSO = 1.25;
+    private static final int INTERVALO_DETECCAO = 2;
+    /**
+     * Fração dos quadros da janela acima do orçamento que faz descer um nível.
+     */
+    private static final double FRACAO_ATRASADOS = 0.1;
+    /**
+     * Há folga quando a maior latência da janela fica abaixo dessa fração do
+     * orçamento.
+     */
+    private static final double FOLGA = 0.6;
+    private static final int JANELAS_FOLGA = 3;
+    /**
+     * A câmera é o limite quando a leitura de um quadro leva pelo menos essa
+     * fração do intervalo entre quadros (a leitura fica esperando o quadro
+     * seguinte).
+     */
+    private static final double LIMITE_CAMERA = 0.8;
+
+    private static final ObjDetec.CascOrigin[] CASCADES = {ObjDetec.CascOrigin.Normal,
+        ObjDetec.CascOrigin.HSV, ObjDetec.CascOrigin.InRange};
+
+    private final double fpsAlvo;
+    private final long orcamentoNanos;
+    /**
+     * Quadros entregues por medição.
+     */
+    private final int janela;
+
+    private Nivel nivel = Nivel.Completo;
+    private ObjDetec.CascOrigin pulado = ObjDetec.CascOrigin.Indef;
+    private int janelasComFolga;
+
+    private int quadros;
+    private int atrasados;
+    private long maiorLatencia;
+    private long inicioJanela;
+    /**
+     * Contagem e soma dos histogramas da captura e dos cascades no início da
+     * janela, na ordem de {@link #CASCADES} e com a captura no fim.
+     */
+    private final long[] contagens = new long[CASCADES.length + 1];
+    private final long[] somas = new long[CASCADES.length + 1];
+    private final double[] custos = new double[CASCADES.length + 1];
+
+    /**
+     * @param fpsAlvo Quadros por segundo entregues que devem ser mantidos.
+     * @param orcamentoMs Latência máxima de um quadro, da captura à entrega.
+     * @param janela Quadros entregues entre duas medições.
+     */
+    public GovernadorQuadros(double fpsAlvo, double orcamentoMs, int janela) {
+        this.fpsAlvo = fpsAlvo;
+        this.orcamentoNanos = (long) (orcamentoMs * 1e6);
+        this.janela = Math.max(1, janela);
+    }
+
+    /**
+     * Aplica as reduções do nível atual ao plano do quadro, depois dos outros
+     * planejadores.
+     *
+     * @param q Quadro a planejar.
+     */
+    public synchronized void planeja(Quadro q) {
+        PlanoDeteccao plano = q.getPlano();
+        if (nivel == Nivel.Completo || !plano.isDetectar())
+            return;
+        if (nivel.compareTo(Nivel.Intervalo) >= 0 && q.getIndice() % INTERVALO_DETECCAO != 0) {
+            plano.setDetectar(false);
+            return;
+        }
+        plano.setEscala(plano.getEscala() * FATOR_REDUCAO);
+        plano.getTamanhoMin().width *= FATOR_REDUCAO;
+        plano.getTamanhoMin().height *= FATOR_REDUCAO;
+        plano.getTamanhoMax().width *= FATOR_REDUCAO;
+        plano.getTamanhoMax().height *= FATOR_REDUCAO;
+        if (nivel.compareTo(Nivel.SemCascade) >= 0)
+            plano.setPulado(pulado);
+        if (nivel.compareTo(Nivel.FatorGrosso) >= 0)
+            plano.setFatorEscala(Math.max(plano.getFatorEscala(), FATOR_ESCALA_GROSSO));
+    }
+
+    /**
+     * Mede um quadro entregue e, no fim da janela, decide o nível.
+     *
+     * @param q Quadro entregue às saídas.
+     */
+    public synchronized void registra(Quadro q) {
+        long agora = System.nanoTime();
+        if (inicioJanela == 0) {
+            iniciaJanela(agora);
+            return;
+        }
+        long latencia = agora - q.getTempoCaptura();
+        if (latencia > orcamentoNanos)
+            atrasados++;
+        maiorLatencia = Math.max(maiorLatencia, latencia);
+        if (++quadros < janela)
+            return;
+
+        double segundos = (agora - inicioJanela) / 1e9;
+        double fps = quadros / segundos;
+        mede();
+        double intervaloMs = 1e3 / fps;
+        boolean limiteCamera = custos[CASCADES.length] >= LIMITE_CAMERA * intervaloMs;
+
+        if (atrasados > FRACAO_ATRASADOS * quadros)
+            desce(String.format("latência acima de %.0f ms em %d de %d quadros", orcamentoNanos / 1e6, atrasados, quadros));
+        else if (fps < fpsAlvo && !limiteCamera)
+            desce(String.format("%.1f fps abaixo da meta de %.1f", fps, fpsAlvo));
+        else if (maiorLatencia < FOLGA * orcamentoNanos && (fps >= fpsAlvo || limiteCamera)) {
+            if (++janelasComFolga >= JANELAS_FOLGA)
+                sobe(String.format("folga: %.1f fps, maior latência %.0f ms", fps, maiorLatencia / 1e6));
+        } else
+            janelasComFolga = 0;
+        iniciaJanela(agora);
+    }
+
+    public synchronized Nivel getNivel() {
+        return nivel;
+    }
+
+    /**
+     * Custo médio por quadro da captura e de cada cascade na janela, em ms.
+     */
+    private void mede() {
+        for (int i = 0; i <= CASCADES.length; i++) {
+            HistogramaLatencia h = i < CASCADES.length ? Metricas.cascade(CASCADES[i]) : Metricas.CAPTURA;
+            long n = h.getContagem() - contagens[i];
+            custos[i] = n == 0 ? 0 : (h.getSomaNanos() - somas[i]) / 1e6 / n;
+        }
+    }
+
+    private void iniciaJanela(long agora) {
+        for (int i = 0; i <= CASCADES.length; i++) {
+            HistogramaLatencia h = i < CASCADES.length ? Metricas.cascade(CASCADES[i]) : Metricas.CAPTURA;
+            contagens[i] = h.getContagem();
+            somas[i] = h.getSomaNanos();
+        }
+        inicioJanela = agora;
+        quadros = atrasados = 0;
+        maiorLatencia = 0;
+    }
+
+    private void desce(String motivo) {
+        janelasComFolga = 0;
+        if (nivel == Nivel.Intervalo)
+            return;
+        Nivel anterior = nivel;
+        nivel = Nivel.values()[nivel.ordinal() + 1];
+        if (nivel == Nivel.SemCascade) {
+            //O cascade que mais pesou na última janela
+            int maisCaro = 0;
+            for (int i = 1; i < CASCADES.length; i++)
+                if (custos[i] > custos[maisCaro])
+                    maisCaro = i;
+            pulado = CASCADES[maisCaro];
+            motivo += ", sem o cascade " + pulado;
+        }
+        System.out.println("Governador: " + anterior + " -> " + nivel + " (" + motivo + ")");
+    }
+
+    private void sobe(String motivo) {
+        janelasComFolga = 0;
+        if (nivel == Nivel.Completo)
+            return;
+        Nivel anterior = nivel;
+        nivel = Nivel.values()[nivel.ordinal() - 1];
+        System.out.println("Governador: " + anterior + " -> " + nivel + " (" + motivo + ")");
+    }
+}
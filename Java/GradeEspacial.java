@@ -0,0 +1,111 @@
+
+import java.util.Arrays;
+
+/**
+ * Índice espacial em grade uniforme, usado para encontrar rapidamente as
+ * detecções com o centro próximo de um ponto. Cada detecção é guardada na
+ * célula do seu centro, e a consulta olha só a célula do ponto e as 8 em
+ * volta. Com o lado da célula maior ou igual à maior distância procurada, a
+ * consulta nunca perde um vizinho.
+ * <p>
+ * As células são espalhadas em uma tabela de tamanho fixo (potência de 2)
+ * por hash, então células diferentes podem cair na mesma posição. Por isso a
+ * consulta devolve candidatos, que ainda precisam do teste exato. Todos os
+ * vetores são reusados entre chamadas, sem alocar enquanto a quantidade de
+ * detecções não passar da capacidade.
+ */
+public class GradeEspacial {
+
+    private int lado = 1;
+    private int mascara;
+
+    /**
+     * Início de cada posição da tabela em {@link #itens} (contagem
+     * acumulada), com uma posição extra no fim.
+     */
+    private int[] inicio = new int[1];
+    /**
+     * Indices das detecções, agrupados por posição da tabela.
+     */
+    private int[] itens = new int[0];
+    /**
+     * Posição da tabela de cada detecção.
+     */
+    private int[] posicao = new int[0];
+
+    private final int[] visitadas = new int[9];
+
+    /**
+     * Monta o índice.
+     *
+     * @param x Coordenada x do centro de cada detecção.
+     * @param y Coordenada y do centro de cada detecção.
+     * @param n Numero de detecções.
+     * @param lado Lado da célula, maior ou igual à maior distância que será
+     * procurada.
+     */
+    public void indexa(int[] x, int[] y, int n, int lado) {
+        this.lado = Math.max(1, lado);
+        int tamanho = Integer.highestOneBit(Math.max(1, n) * 2 - 1) << 1;
+        mascara = tamanho - 1;
+        if (inicio.length < tamanho + 1)
+            inicio = new int[tamanho + 1];
+        if (itens.length < n) {
+            itens = new int[n];
+            posicao = new int[n];
+        }
+
+        Arrays.fill(inicio, 0, tamanho + 1, 0);
+        for (int i = 0; i < n; i++) {
+            posicao[i] = hash(celula(x[i]), celula(y[i]));
+            inicio[posicao[i] + 1]++;
+        }
+        for (int p = 0; p < tamanho; p++)
+            inicio[p + 1] += inicio[p];
+        //Usa as posições de início como cursor, e depois as restaura
+        for (int i = 0; i < n; i++)
+            itens[inicio[posicao[i]]++] = i;
+        for (int p = tamanho; p > 0; p--)
+            inicio[p] = inicio[p - 1];
+        inicio[0] = 0;
+    }
+
+    /**
+     * Lista as detecções que podem estar a menos de um
+     * {@linkplain #indexa(int[], int[], int, int) lado de célula} do ponto.
+     *
+     * @param px Coordenada x do ponto.
+     * @param py Coordenada y do ponto.
+     * @param saida Vetor onde são salvos os indices dos candidatos. Precisa
+     * ter espaço para todas as detecções indexadas.
+     * @return Numero de candidatos salvos em saida.
+     */
+    public int consulta(int px, int py, int[] saida) {
+        int cx = celula(px);
+        int cy = celula(py);
+        int nVisitadas = 0;
+        int n = 0;
+        for (int dy = -1; dy <= 1; dy++)
+            for (int dx = -1; dx <= 1; dx++) {
+                int p = hash(cx + dx, cy + dy);
+                boolean repetida = false;
+                for (int v = 0; v < nVisitadas; v++)
+                    if (visitadas[v] == p)
+                        repetida = true;
+                if (repetida)
+                    continue;
+                visitadas[nVisitadas++] = p;
+                for (int k = inicio[p]; k < inicio[p + 1]; k++)
+                    saida[n++] = itens[k];
+            }
+        return n;
+    }
+
+    private int celula(int v) {
+        return Math.floorDiv(v, lado);
+    }
+
+    private int hash(int cx, int cy) {
+        return (cx * 73856093 ^ cy * 19349663) & mascara;
+    }
+}
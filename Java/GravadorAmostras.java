@@ -0,0 +1,86 @@
+
+import org.opencv.core.MatOfRect;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Grava as saídas brutas dos 3 cascades de cada quadro em um arquivo
+ * binário, para que a fusão possa ser repetida depois sem câmera nem
+ * cascades ({@link ReproducaoAmostras}).
+ * <p>
+ * Formato (big-endian, todos os campos com 4 ou 8 bytes, para que os
+ * retângulos fiquem alinhados a 4 bytes e possam ser lidos direto do arquivo
+ * mapeado):
+ * <pre>
+ * cabeçalho: int MAGICO, int VERSAO
+ * registro:  long indice, long tempoCaptura (ns), int numCascades,
+ *            numCascades × (int origem, int n, n × (int x, int y, int largura, int altura))
+ * </pre>
+ * Quadros em que os cascades não rodaram têm numCascades = 0. A origem é o
+ * {@linkplain ObjDetec.CascOrigin#id id} do cascade.
+ * <p>
+ * Como toda {@link SaidaDeteccoes}, grava no thread da fusão, antes das filas
+ * que descartam quadros: a gravação tem exatamente os quadros que passaram
+ * pela {@link EstruturaAmostras} ao vivo.
+ */
+public class GravadorAmostras implements SaidaDeteccoes {
+
+    static final int MAGICO = 0x4E524C44; //"NRLD"
+    static final int VERSAO = 1;
+
+    private final DataOutputStream saida;
+    private int[] retangulos = new int[64];
+
+    /**
+     * @param arquivo Caminho do arquivo, que é sobrescrito.
+     * @throws IOException Se não for possivel criar o arquivo.
+     */
+    public GravadorAmostras(String arquivo) throws IOException {
+        saida = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(arquivo), 1 << 16));
+        saida.writeInt(MAGICO);
+        saida.writeInt(VERSAO);
+    }
+
+    @Override
+    public void escreve(Quadro q) {
+        try {
+            saida.writeLong(q.getIndice());
+            saida.writeLong(q.getTempoCaptura());
+            if (!q.getPlano().isDetectar()) {
+                saida.writeInt(0);
+                return;
+            }
+            saida.writeInt(3);
+            escreve(q.getDetNormal(), ObjDetec.CascOrigin.Normal);
+            escreve(q.getDetHSV(), ObjDetec.CascOrigin.HSV);
+            escreve(q.getDetInRange(), ObjDetec.CascOrigin.InRange);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void escreve(MatOfRect det, ObjDetec.CascOrigin orig) throws IOException {
+        int n = det.rows();
+        if (retangulos.length < n * 4)
+            retangulos = new int[n * 8];
+        if (n > 0)
+            det.get(0, 0, retangulos);
+        saida.writeInt(orig.id);
+        saida.writeInt(n);
+        for (int i = 0; i < n * 4; i++)
+            saida.writeInt(retangulos[i]);
+    }
+
+    @Override
+    public void close() {
+        try {
+            saida.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
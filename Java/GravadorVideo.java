@@ -0,0 +1,53 @@
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoWriter;
+
+/**
+ * Grava os quadros anotados em um arquivo de vídeo. O arquivo é aberto no
+ * primeiro quadro, quando o tamanho da imagem é conhecido.
+ */
+public class GravadorVideo implements SaidaQuadros {
+
+    private final String arquivo;
+    private final double fps;
+    private final int fourcc;
+    private final VideoWriter writer = new VideoWriter();
+    private boolean aberto;
+
+    /**
+     * Grava em Motion JPEG.
+     *
+     * @param arquivo Caminho do arquivo de vídeo.
+     * @param fps Quadros por segundo gravados no arquivo.
+     */
+    public GravadorVideo(String arquivo, double fps) {
+        this(arquivo, fps, VideoWriter.fourcc('M', 'J', 'P', 'G'));
+    }
+
+    /**
+     * @param arquivo Caminho do arquivo de vídeo.
+     * @param fps Quadros por segundo gravados no arquivo.
+     * @param fourcc Codec ({@link VideoWriter#fourcc(char, char, char, char)}).
+     */
+    public GravadorVideo(String arquivo, double fps, int fourcc) {
+        this.arquivo = arquivo;
+        this.fps = fps;
+        this.fourcc = fourcc;
+    }
+
+    @Override
+    public void escreve(Quadro q, Mat imagem) {
+        if (!aberto) {
+            if (!writer.open(arquivo, fourcc, fps, new Size(imagem.cols(), imagem.rows())))
+                throw new IllegalStateException("Não foi possivel abrir " + arquivo);
+            aberto = true;
+        }
+        writer.write(imagem);
+    }
+
+    @Override
+    public void close() {
+        writer.release();
+    }
+}
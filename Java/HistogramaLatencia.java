@@ -0,0 +1,202 @@
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latências sem travas, para medir as etapas do processamento
+ * o tempo todo. Os valores (em nanossegundos) caem em faixas
+ * log-lineares: cada potência de 2 é dividida em {@link #SUB_FAIXAS}/2
+ * partes iguais, o que dá um erro relativo de no máximo ~3% nos percentis.
+ * Registrar é só um cálculo de índice e um incremento atômico, sem alocar.
+ * <p>
+ * As contagens são acumuladas desde o início. Os percentis podem ser
+ * calculados no total ({@link #getP50Micros()} etc., usados pelo
+ * {@linkplain HistogramaLatenciaMBean MBean}) ou só no intervalo desde a
+ * última {@link #amostra()}, usada no relatório periódico.
+ */
+public class HistogramaLatencia implements HistogramaLatenciaMBean {
+
+    /**
+     * Valores abaixo de SUB_FAIXAS têm uma faixa cada. Acima disso, cada
+     * potência de 2 é dividida em SUB_FAIXAS/2 faixas.
+     */
+    private static final int SUB_FAIXAS = 32;
+    private static final int BITS_SUB = 5;
+    /**
+     * Maior potência de 2 representada (2^40 ns ≈ 18 minutos). Valores
+     * maiores vão para a última faixa.
+     */
+    private static final int BITS_MAX = 40;
+    private static final int NUM_FAIXAS = (BITS_MAX - BITS_SUB + 3) * SUB_FAIXAS / 2;
+
+    private final String nome;
+    private final AtomicLongArray contagens = new AtomicLongArray(NUM_FAIXAS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong soma = new AtomicLong();
+    private final AtomicLong maximo = new AtomicLong();
+
+    /**
+     * Contagens na última amostra, usadas para calcular os percentis do
+     * intervalo. Só são acessadas por quem chama {@link #amostra()}.
+     */
+    private final long[] anteriores = new long[NUM_FAIXAS];
+    private final long[] intervalo = new long[NUM_FAIXAS];
+    private long totalIntervalo;
+
+    /**
+     * @param nome Nome da etapa medida.
+     */
+    public HistogramaLatencia(String nome) {
+        this.nome = nome;
+    }
+
+    /**
+     * Registra uma latência.
+     *
+     * @param nanos Duração em nanossegundos.
+     */
+    public void registra(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        contagens.incrementAndGet(faixa(nanos));
+        total.incrementAndGet();
+        soma.addAndGet(nanos);
+        long m;
+        while (nanos > (m = maximo.get()) && !maximo.compareAndSet(m, nanos)) {
+            //Outro thread mudou o máximo, tenta de novo
+        }
+    }
+
+    /**
+     * Registra o tempo desde um instante.
+     *
+     * @param inicio Instante inicial ({@link System#nanoTime()}).
+     */
+    public void registraDesde(long inicio) {
+        registra(System.nanoTime() - inicio);
+    }
+
+    static int faixa(long v) {
+        if (v < SUB_FAIXAS)
+            return (int) v;
+        int e = 63 - Long.numberOfLeadingZeros(v) - BITS_SUB + 1;
+        if (e > BITS_MAX - BITS_SUB + 1)
+            return NUM_FAIXAS - 1;
+        return e * SUB_FAIXAS / 2 + (int) (v >>> e);
+    }
+
+    /**
+     * @return Valor do meio da faixa, em nanossegundos.
+     */
+    static long valorFaixa(int i) {
+        if (i < SUB_FAIXAS)
+            return i;
+        int e = i / (SUB_FAIXAS / 2) - 1;
+        long sub = i - e * SUB_FAIXAS / 2;
+        return (sub << e) + (1L << e) / 2;
+    }
+
+    private static long percentil(long[] c, long n, double p) {
+        if (n == 0)
+            return 0;
+        long alvo = (long) Math.ceil(p * n);
+        long acumulado = 0;
+        for (int i = 0; i < c.length; i++) {
+            acumulado += c[i];
+            if (acumulado >= alvo)
+                return valorFaixa(i);
+        }
+        return valorFaixa(c.length - 1);
+    }
+
+    private long percentilTotal(double p) {
+        long[] c = new long[NUM_FAIXAS];
+        long n = 0;
+        for (int i = 0; i < NUM_FAIXAS; i++) {
+            c[i] = contagens.get(i);
+            n += c[i];
+        }
+        return percentil(c, n, p);
+    }
+
+    /**
+     * Separa as contagens registradas desde a última chamada, para os
+     * percentis do intervalo ({@link #percentilIntervalo(double)}). Deve ser
+     * chamado sempre pelo mesmo thread.
+     *
+     * @return Numero de registros no intervalo.
+     */
+    public synchronized long amostra() {
+        totalIntervalo = 0;
+        for (int i = 0; i < NUM_FAIXAS; i++) {
+            long c = contagens.get(i);
+            intervalo[i] = c - anteriores[i];
+            anteriores[i] = c;
+            totalIntervalo += intervalo[i];
+        }
+        return totalIntervalo;
+    }
+
+    /**
+     * @param p Percentil, entre 0 e 1.
+     * @return Latência do percentil no intervalo da última
+     * {@link #amostra()}, em nanossegundos.
+     */
+    public synchronized long percentilIntervalo(double p) {
+        return percentil(intervalo, totalIntervalo, p);
+    }
+
+    /**
+     * @return Soma de todas as latências registradas, em nanossegundos.
+     */
+    public long getSomaNanos() {
+        return soma.get();
+    }
+
+    @Override
+    public String getNome() {
+        return nome;
+    }
+
+    @Override
+    public long getContagem() {
+        return total.get();
+    }
+
+    @Override
+    public double getMediaMicros() {
+        long n = total.get();
+        return n == 0 ? 0 : soma.get() / 1e3 / n;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return percentilTotal(0.5) / 1e3;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return percentilTotal(0.99) / 1e3;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return percentilTotal(0.999) / 1e3;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return maximo.get() / 1e3;
+    }
+
+    @Override
+    public synchronized void reinicia() {
+        for (int i = 0; i < NUM_FAIXAS; i++) {
+            contagens.set(i, 0);
+            anteriores[i] = 0;
+        }
+        total.set(0);
+        soma.set(0);
+        maximo.set(0);
+    }
+}
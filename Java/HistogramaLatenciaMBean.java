@@ -0,0 +1,26 @@
+
+/**
+ * Interface JMX de um {@link HistogramaLatencia}. Os valores são acumulados
+ * desde o início (ou desde {@link #reinicia()}).
+ */
+public interface HistogramaLatenciaMBean {
+
+    String getNome();
+
+    long getContagem();
+
+    double getMediaMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    /**
+     * Zera as contagens.
+     */
+    void reinicia();
+}
@@ -0,0 +1,152 @@
+import org.opencv.core.Mat;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+
+/**
+ * Mostra os quadros anotados em uma janela Swing.
+ * <p>
+ * A imagem é mantida em dois {@link BufferedImage} reusados, criados só
+ * quando a resolução ou o número de canais muda: o quadro é copiado direto
+ * para o raster da imagem de trás, e as duas trocam de lugar. O desenho é
+ * feito no thread do Swing (EDT), que pinta sempre a imagem da frente. Se a
+ * janela não acompanha os quadros, os pedidos de desenho se juntam em um só
+ * e só o último quadro é pintado.
+ */
+public class JanelaExibicao implements SaidaQuadros {
+
+    private final JFrame frame;
+    private final Painel painel = new Painel();
+
+    /**
+     * Imagens da frente e de trás. A troca e o desenho da frente são feitos
+     * com o monitor de {@link #painel}.
+     */
+    private final BufferedImage[] imagens = new BufferedImage[2];
+    private int frente;
+    /**
+     * Se já existe um desenho agendado no EDT que ainda não rodou.
+     */
+    private final AtomicBoolean agendado = new AtomicBoolean();
+    private final Runnable atualiza = this::atualiza;
+
+    /**
+     * Cria e mostra a janela.
+     *
+     * @param titulo Título da janela.
+     * @param aoFechar Executado quando o usuário fecha a janela, antes de o
+     * programa terminar.
+     */
+    public JanelaExibicao(String titulo, Runnable aoFechar) {
+        frame = new JFrame(titulo);
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                aoFechar.run(); //Roda antes do EXIT_ON_CLOSE
+            }
+        });
+
+        frame.setResizable(true);
+        frame.setLocationRelativeTo(null);
+
+        frame.getContentPane().add(painel, BorderLayout.CENTER);
+
+        frame.validate();
+        frame.setVisible(true);
+    }
+
+    @Override
+    public void escreve(Quadro q, Mat imagem) {
+        long inicio = System.nanoTime();
+        BufferedImage tras = preparaTras(imagem);
+        if (tras == null)
+            return;
+        imagem.get(0, 0, ((DataBufferByte) tras.getRaster().getDataBuffer()).getData()); //Copia o Mat para o raster
+        synchronized (painel) {
+            frente = 1 - frente;
+        }
+        Metricas.CONVERSAO.registraDesde(inicio);
+        if (agendado.compareAndSet(false, true))
+            SwingUtilities.invokeLater(atualiza);
+    }
+
+    @Override
+    public void close() {
+        frame.dispose();
+    }
+
+    /**
+     * Garante a imagem de trás com o tamanho e o tipo do quadro.
+     *
+     * @return A imagem de trás, ou null se o quadro não tem 1 nem 3 canais.
+     */
+    private BufferedImage preparaTras(Mat mat) {
+        int tipo;
+        if (mat.channels() == 1)
+            tipo = BufferedImage.TYPE_BYTE_GRAY;
+        else if (mat.channels() == 3)
+            tipo = BufferedImage.TYPE_3BYTE_BGR;
+        else
+            return null;
+
+        int t = 1 - frente; //Só quem escreve troca a frente, então não precisa do monitor para ler
+        BufferedImage tras = imagens[t];
+        if (tras == null || tras.getWidth() != mat.width() || tras.getHeight() != mat.height() || tras.getType() != tipo) {
+            tras = new BufferedImage(mat.width(), mat.height(), tipo);
+            synchronized (painel) {
+                imagens[t] = tras;
+            }
+        }
+        return tras;
+    }
+
+    /**
+     * Roda no EDT: ajusta a janela se a resolução mudou e pinta o quadro da
+     * frente.
+     */
+    private void atualiza() {
+        agendado.set(false); //Um quadro que chegar depois daqui agenda outro desenho
+        long inicio = System.nanoTime();
+        BufferedImage img;
+        synchronized (painel) {
+            img = imagens[frente];
+        }
+        if (img == null)
+            return;
+        Dimension d = painel.getPreferredSize();
+        if (d.width != img.getWidth() || d.height != img.getHeight()) {
+            painel.setPreferredSize(new Dimension(img.getWidth(), img.getHeight()));
+            frame.pack(); //Configura o tamanho da janela como tamanho da imagem
+        }
+        painel.paintImmediately(0, 0, painel.getWidth(), painel.getHeight());
+        Metricas.EXIBICAO.registraDesde(inicio);
+    }
+
+    /**
+     * Componente que pinta a imagem da frente.
+     */
+    private class Painel extends JComponent {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            synchronized (this) {
+                BufferedImage img = imagens[frente];
+                if (img != null)
+                    g.drawImage(img, 0, 0, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Encontra os XMLs dos cascades. O {@link org.opencv.objdetect.CascadeClassifier CascadeClassifier}
+ * só lê arquivos, então um XML que está dentro de um jar é extraído uma vez
+ * para uma pasta de cache e reusado nas execuções seguintes.
+ * <p>
+ * A ordem de busca é:
+ * <ol>
+ * <li>a pasta da propriedade {@value #PROPRIEDADE_PASTA}, se existir, para
+ * trocar os cascades sem reempacotar;</li>
+ * <li>o classpath, usando o arquivo direto quando o recurso é um arquivo
+ * comum;</li>
+ * <li>a cópia no cache (pasta da propriedade {@value #PROPRIEDADE_CACHE}, ou
+ * {@code ~/.cache/nrl-deteccao}), quando o recurso está em um jar. O nome da
+ * cópia leva a data e o tamanho do recurso, então um jar novo gera uma cópia
+ * nova.</li>
+ * </ol>
+ */
+public class LocalizadorCascades {
+
+    public static final String PROPRIEDADE_PASTA = "nrl.cascades";
+    public static final String PROPRIEDADE_CACHE = "nrl.cache";
+
+    private LocalizadorCascades() {
+    }
+
+    /**
+     * @param xml Nome do XML (ex.: {@code 18N.xml}).
+     * @return Caminho de um arquivo com o XML.
+     * @throws IOException Se o XML não for encontrado ou não puder ser
+     * extraído.
+     */
+    public static String resolve(String xml) throws IOException {
+        String pasta = System.getProperty(PROPRIEDADE_PASTA);
+        if (pasta != null) {
+            File f = new File(pasta, xml);
+            if (f.isFile())
+                return f.getAbsolutePath();
+        }
+
+        URL url = LocalizadorCascades.class.getResource("/" + xml);
+        if (url == null)
+            throw new FileNotFoundException("Cascade não encontrado no classpath: " + xml);
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new File(url.toURI()).getAbsolutePath();
+            } catch (URISyntaxException | IllegalArgumentException ex) {
+                //Segue para a extração
+            }
+        }
+        return extrai(xml, url);
+    }
+
+    /**
+     * Copia o recurso para o cache, se ainda não estiver lá. A cópia é
+     * escrita em um arquivo temporário e renomeada, para que duas execuções
+     * ao mesmo tempo não vejam um XML pela metade.
+     */
+    private static String extrai(String xml, URL url) throws IOException {
+        URLConnection conexao = url.openConnection();
+        long tamanho = conexao.getContentLengthLong();
+        long data = conexao.getLastModified();
+        File cache = new File(System.getProperty(PROPRIEDADE_CACHE,
+                System.getProperty("user.home") + File.separator + ".cache" + File.separator + "nrl-deteccao"));
+        File destino = new File(cache, data + "-" + tamanho + "-" + xml);
+        if (tamanho >= 0 && destino.isFile() && destino.length() == tamanho)
+            return destino.getAbsolutePath();
+
+        Files.createDirectories(cache.toPath());
+        Path temporario = Files.createTempFile(cache.toPath(), xml, ".tmp");
+        try (InputStream in = conexao.getInputStream()) {
+            Files.copy(in, temporario, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temporario, destino.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporario);
+        }
+        return destino.getAbsolutePath();
+    }
+}
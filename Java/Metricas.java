@@ -0,0 +1,216 @@
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Medições de tempo de cada etapa do processamento de um quadro, sempre
+ * ligadas. Cada etapa tem um {@link HistogramaLatencia}, que custa duas
+ * leituras de {@link System#nanoTime()} e alguns incrementos atômicos por
+ * registro. Também conta os quadros entregues às saídas (para o fps) e os
+ * descartados pelo pipeline.
+ * <p>
+ * Os histogramas são globais, como os limites de cor da detecção, para que
+ * qualquer classe registre a sua etapa sem que as medições precisem passar
+ * pelos construtores. Com vários {@linkplain ServidorDeteccao fluxos}, cada
+ * histograma junta as medições de todos.
+ * <p>
+ * Tudo é exposto por JMX ({@link #registraMBeans()}), sob o domínio
+ * {@value #DOMINIO}, e resumido em uma linha por {@link #relatorio()}.
+ */
+public class Metricas implements MetricasMBean {
+
+    public static final String DOMINIO = "nrl.deteccao";
+
+    /**
+     * Leitura da câmera ({@code cap.read}).
+     */
+    public static final HistogramaLatencia CAPTURA = new HistogramaLatencia("captura");
+    /**
+     * Mudança de escala e recorte das imagens ({@code resize},
+     * {@code getRectSubPix}).
+     */
+    public static final HistogramaLatencia ESCALA = new HistogramaLatencia("escala");
+    /**
+     * Conversão para HSV ({@code cvtColor}), ou conversão e máscara juntas
+     * no kernel do {@link ConversorHsv}.
+     */
+    public static final HistogramaLatencia HSV = new HistogramaLatencia("hsv");
+    /**
+     * Os dois {@code inRange} e o {@code bitwise_or}.
+     */
+    public static final HistogramaLatencia INRANGE = new HistogramaLatencia("inrange");
+    /**
+     * {@code detectMultiScale} de cada cascade.
+     */
+    public static final HistogramaLatencia CASCADE_NORMAL = new HistogramaLatencia("cascade-normal");
+    public static final HistogramaLatencia CASCADE_HSV = new HistogramaLatencia("cascade-hsv");
+    public static final HistogramaLatencia CASCADE_INRANGE = new HistogramaLatencia("cascade-inrange");
+    /**
+     * Fusão ({@link EstruturaAmostras#evaluateSamples()}).
+     */
+    public static final HistogramaLatencia FUSAO = new HistogramaLatencia("fusao");
+    /**
+     * Cópia da imagem para o raster AWT da janela.
+     */
+    public static final HistogramaLatencia CONVERSAO = new HistogramaLatencia("conversao");
+    /**
+     * Desenho do quadro na janela Swing, no EDT.
+     */
+    public static final HistogramaLatencia EXIBICAO = new HistogramaLatencia("exibicao");
+    /**
+     * Latência total de um quadro, da captura até a entrega às saídas.
+     */
+    public static final HistogramaLatencia QUADRO = new HistogramaLatencia("quadro");
+
+    private static final HistogramaLatencia[] TODOS = {CAPTURA, ESCALA, HSV, INRANGE,
+        CASCADE_NORMAL, CASCADE_HSV, CASCADE_INRANGE, FUSAO, CONVERSAO, EXIBICAO, QUADRO};
+
+    private static final LongAdder QUADROS = new LongAdder();
+    private static final LongAdder DESCARTADOS = new LongAdder();
+    private static final LongAdder SUPRIMIDAS = new LongAdder();
+    /**
+     * Milisegundos do início da JVM até o primeiro quadro entregue, ou -1.
+     */
+    private static final AtomicLong PRIMEIRO_QUADRO = new AtomicLong(-1);
+
+    private static final Metricas INSTANCIA = new Metricas();
+    private static boolean registrado;
+
+    private long quadrosAmostra;
+    private long descartadosAmostra;
+    private long tempoAmostra = System.nanoTime();
+    private double fps;
+
+    private Metricas() {
+    }
+
+    /**
+     * @param orig Tipo do cascade.
+     * @return Histograma do {@code detectMultiScale} do cascade.
+     * @throws Error Se a origem for {@linkplain ObjDetec.CascOrigin#Indef indefinida}.
+     */
+    public static HistogramaLatencia cascade(ObjDetec.CascOrigin orig) {
+        switch (orig) {
+            case Normal:
+                return CASCADE_NORMAL;
+            case HSV:
+                return CASCADE_HSV;
+            case InRange:
+                return CASCADE_INRANGE;
+            default:
+                throw new Error("Não existe medição para o tipo de cascade indefinido.");
+        }
+    }
+
+    /**
+     * Conta um quadro entregue às saídas e registra a sua latência total. No
+     * primeiro quadro, imprime o tempo desde o início da JVM (carregamento
+     * dos cascades, abertura da câmera e da janela).
+     *
+     * @param q Quadro entregue.
+     */
+    public static void quadroEntregue(Quadro q) {
+        QUADROS.increment();
+        QUADRO.registraDesde(q.getTempoCaptura());
+        if (PRIMEIRO_QUADRO.get() < 0) {
+            long ms = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+            if (PRIMEIRO_QUADRO.compareAndSet(-1, ms))
+                System.out.println("Primeiro quadro em " + ms + " ms desde o início");
+        }
+    }
+
+    /**
+     * Conta um quadro descartado antes de chegar às saídas.
+     */
+    public static void quadroDescartado() {
+        DESCARTADOS.increment();
+    }
+
+    /**
+     * Conta detecções removidas pela supressão de não-máximos de um cascade.
+     *
+     * @param n Numero de detecções removidas.
+     * @see EstruturaAmostras#setSuppression(double)
+     */
+    public static void deteccoesSuprimidas(int n) {
+        if (n > 0)
+            SUPRIMIDAS.add(n);
+    }
+
+    /**
+     * Registra os histogramas e os contadores no servidor JMX da plataforma.
+     * Chamadas repetidas não fazem nada.
+     */
+    public static synchronized void registraMBeans() {
+        if (registrado)
+            return;
+        MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+        try {
+            servidor.registerMBean(INSTANCIA, new ObjectName(DOMINIO + ":type=Metricas"));
+            for (HistogramaLatencia h : TODOS)
+                servidor.registerMBean(h, new ObjectName(DOMINIO + ":type=Latencia,name=" + h.getNome()));
+            registrado = true;
+        } catch (JMException ex) {
+            System.err.println("Não foi possivel registrar as métricas no JMX: " + ex);
+        }
+    }
+
+    /**
+     * Monta uma linha com o fps, os descartes e o p50/p99/p999 (em ms) das
+     * etapas medidas desde o último relatório. Deve ser chamado sempre pelo
+     * mesmo thread.
+     *
+     * @return Texto do relatório.
+     */
+    public static String relatorio() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (INSTANCIA) {
+            long agora = System.nanoTime();
+            long quadros = QUADROS.sum();
+            long descartados = DESCARTADOS.sum();
+            if (agora > INSTANCIA.tempoAmostra)
+                INSTANCIA.fps = (quadros - INSTANCIA.quadrosAmostra) * 1e9 / (agora - INSTANCIA.tempoAmostra);
+            sb.append(String.format("latencia: %.1f fps descartados=%d", INSTANCIA.fps, descartados - INSTANCIA.descartadosAmostra));
+            INSTANCIA.quadrosAmostra = quadros;
+            INSTANCIA.descartadosAmostra = descartados;
+            INSTANCIA.tempoAmostra = agora;
+        }
+        for (HistogramaLatencia h : TODOS) {
+            if (h.amostra() == 0)
+                continue;
+            sb.append(String.format(" %s[%.2f/%.2f/%.2f]", h.getNome(), h.percentilIntervalo(0.5) / 1e6,
+                    h.percentilIntervalo(0.99) / 1e6, h.percentilIntervalo(0.999) / 1e6));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public synchronized double getFps() {
+        return fps;
+    }
+
+    @Override
+    public long getQuadros() {
+        return QUADROS.sum();
+    }
+
+    @Override
+    public long getDescartados() {
+        return DESCARTADOS.sum();
+    }
+
+    @Override
+    public long getSuprimidas() {
+        return SUPRIMIDAS.sum();
+    }
+
+    @Override
+    public long getPrimeiroQuadroMs() {
+        return PRIMEIRO_QUADRO.get();
+    }
+}
@@ -0,0 +1,34 @@
+
+/**
+ * Interface JMX dos contadores de {@link Metricas}.
+ */
+public interface MetricasMBean {
+
+    /**
+     * @return Quadros por segundo entregues às saídas, calculado no último
+     * {@linkplain Metricas#relatorio() relatório}.
+     */
+    double getFps();
+
+    /**
+     * @return Total de quadros entregues às saídas.
+     */
+    long getQuadros();
+
+    /**
+     * @return Total de quadros descartados antes das saídas.
+     */
+    long getDescartados();
+
+    /**
+     * @return Total de detecções removidas pela supressão de não-máximos dos
+     * cascades.
+     */
+    long getSuprimidas();
+
+    /**
+     * @return Milisegundos do início da JVM até o primeiro quadro entregue,
+     * ou -1 se ainda não houve quadro.
+     */
+    long getPrimeiroQuadroMs();
+}
@@ -0,0 +1,159 @@
+
+import java.util.ArrayList;
+
+/**
+ * Pipeline de processamento dos quadros dividido em estágios (captura →
+ * tratamento → detecção → fusão → exibição), cada um no seu thread e ligados
+ * por {@linkplain FilaCircular filas circulares} de tamanho fixo. Assim um
+ * estágio lento (como a exibição ou um cascade) não trava a captura da
+ * câmera.
+ * <p>
+ * Os quadros circulam em um {@linkplain PoolQuadros conjunto fixo} de
+ * {@link Quadro}s: o primeiro estágio pega um quadro livre, e o último
+ * devolve o quadro para a lista de livres. Quadros descartados pela política
+ * das filas também voltam para essa lista. Como todos os estágios têm um
+ * único thread e as filas mantém a ordem, os quadros chegam na fusão
+ * ({@link EstruturaAmostras}) sempre em ordem crescente de captura, mesmo
+ * quando algum é descartado.
+ */
+public class PipelineDeteccao {
+
+    private final int tamanhoFila;
+    private final FilaCircular.Politica politica;
+
+    private final ArrayList<String> nomes = new ArrayList<>();
+    private final ArrayList<EstagioPipeline.Etapa> etapas = new ArrayList<>();
+    private final ArrayList<EstagioPipeline> estagios = new ArrayList<>();
+    private final ArrayList<FilaCircular<Quadro>> filas = new ArrayList<>();
+    private PoolQuadros pool;
+
+    private Thread monitor;
+
+    /**
+     * @param tamanhoFila Capacidade de cada fila entre estágios.
+     * @param politica O que fazer quando a fila de um estágio enche.
+     */
+    public PipelineDeteccao(int tamanhoFila, FilaCircular.Politica politica) {
+        this.tamanhoFila = tamanhoFila;
+        this.politica = politica;
+    }
+
+    /**
+     * Adiciona um estágio ao fim do pipeline. O primeiro estágio adicionado
+     * recebe quadros livres (é o de captura).
+     *
+     * @param nome Nome do estágio, usado no relatório e no nome do thread.
+     * @param etapa Trabalho do estágio.
+     */
+    public void adicionaEstagio(String nome, EstagioPipeline.Etapa etapa) {
+        if (!estagios.isEmpty())
+            throw new IllegalStateException("O pipeline já foi iniciado.");
+        nomes.add(nome);
+        etapas.add(etapa);
+    }
+
+    /**
+     * Cria as filas e os quadros, e inicia os threads dos estágios.
+     *
+     * @param intervaloRelatorio Intervalo em milissegundos entre as
+     * impressões do {@linkplain #relatorio() relatório}. Zero desliga o
+     * relatório.
+     */
+    public void inicia(long intervaloRelatorio) {
+        if (etapas.isEmpty())
+            throw new IllegalStateException("O pipeline não tem estágios.");
+
+        //Quadros suficientes para encher todas as filas e ter um em cada estágio
+        int numQuadros = (etapas.size() - 1) * tamanhoFila + etapas.size() + 1;
+        pool = new PoolQuadros(numQuadros);
+        FilaCircular<Quadro> livres = pool.getLivres();
+
+        FilaCircular<Quadro> entrada = livres;
+        for (int i = 0; i < etapas.size(); i++) {
+            FilaCircular<Quadro> saida;
+            if (i == etapas.size() - 1)
+                saida = livres;
+            else {
+                saida = new FilaCircular<>(tamanhoFila, politica);
+                filas.add(saida);
+            }
+            estagios.add(new EstagioPipeline(nomes.get(i), etapas.get(i), entrada, saida, livres));
+            entrada = saida;
+        }
+
+        for (EstagioPipeline e : estagios)
+            e.inicia();
+
+        if (intervaloRelatorio > 0) {
+            monitor = new Thread("pipeline-monitor") {
+                @Override
+                public void run() {
+                    try {
+                        while (!isInterrupted()) {
+                            Thread.sleep(intervaloRelatorio);
+                            System.out.println(relatorio());
+                        }
+                    } catch (InterruptedException ex) {
+                        //Pipeline parado
+                    }
+                }
+            };
+            monitor.setDaemon(true);
+            monitor.start();
+        }
+    }
+
+    /**
+     * Interrompe todos os estágios e espera eles terminarem o quadro atual.
+     * Não pode ser chamado de dentro de um estágio.
+     */
+    public void para() {
+        for (EstagioPipeline e : estagios)
+            e.para();
+        if (monitor != null)
+            monitor.interrupt();
+        for (EstagioPipeline e : estagios)
+            e.aguarda();
+    }
+
+    /**
+     * Para o pipeline e libera a memória nativa de todos os quadros.
+     */
+    public void release() {
+        para();
+        if (pool != null)
+            pool.release();
+    }
+
+    public PoolQuadros getPool() {
+        return pool;
+    }
+
+    public ArrayList<EstagioPipeline> getEstagios() {
+        return estagios;
+    }
+
+    /**
+     * @return Total de quadros descartados pelas filas entre estágios.
+     */
+    public long getDescartados() {
+        long total = 0;
+        for (FilaCircular<Quadro> f : filas)
+            total += f.getDescartados();
+        return total;
+    }
+
+    /**
+     * Monta uma linha com a profundidade da fila e a vazão de cada estágio.
+     * A vazão é calculada desde o último relatório.
+     *
+     * @return Texto do relatório.
+     */
+    public String relatorio() {
+        StringBuilder sb = new StringBuilder("pipeline:");
+        for (EstagioPipeline e : estagios)
+            sb.append(String.format(" %s[fila=%d %.1f fps]", e.getNome(), e.getProfundidadeFila(), e.amostraVazao()));
+        sb.append(" descartados=").append(getDescartados());
+        return sb.toString();
+    }
+}
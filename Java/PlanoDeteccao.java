@@ -0,0 +1,140 @@
+
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+/**
+ * Como os cascades devem rodar em um {@linkplain Quadro quadro}: em qual
+ * região, em qual escala da imagem e com quais parâmetros do
+ * {@link org.opencv.objdetect.CascadeClassifier#detectMultiScale(org.opencv.core.Mat, org.opencv.core.MatOfRect, double, int, int, Size, Size) detectMultiScale}.
+ * O plano é {@linkplain #limpa() limpo} a cada captura e preenchido por quem
+ * planeja a detecção ({@link PreditorMovimento}, {@link FiltroMovimento},
+ * {@link RastreadorROI}, {@link EscalaAdaptativa}, {@link GovernadorQuadros}).
+ */
+public class PlanoDeteccao {
+
+    /**
+     * Valores padrão do OpenCV.
+     */
+    public static final double FATOR_ESCALA_PADRAO = 1.1;
+    public static final int VIZINHOS_PADRAO = 3;
+
+    /**
+     * Se os cascades rodam neste quadro. Quando não rodam, o resultado é
+     * {@linkplain PreditorMovimento previsto}.
+     */
+    private boolean detectar = true;
+    /**
+     * Se a cena não mudou desde a última detecção. Nesse caso os cascades não
+     * rodam e o resultado é o {@linkplain FiltroMovimento#getUltimoResultado()
+     * último resultado da fusão}, em vez da previsão.
+     */
+    private boolean semMudanca;
+    /**
+     * Cascade que não roda neste quadro, ou
+     * {@linkplain ObjDetec.CascOrigin#Indef Indef} para rodar os três.
+     */
+    private ObjDetec.CascOrigin pulado = ObjDetec.CascOrigin.Indef;
+    /**
+     * Região de busca, em coordenadas do quadro. Largura zero indica o quadro
+     * inteiro.
+     */
+    private final Rect roi = new Rect();
+    /**
+     * Escala aplicada na imagem (ou no recorte) antes da detecção.
+     */
+    private double escala = 1;
+    /**
+     * Razão entre os tamanhos de janela de duas passadas seguidas do cascade.
+     */
+    private double fatorEscala = FATOR_ESCALA_PADRAO;
+    private int vizinhos = VIZINHOS_PADRAO;
+    /**
+     * Menor e maior objeto procurado, já na escala da detecção. Tamanho zero
+     * indica sem limite.
+     */
+    private final Size tamanhoMin = new Size();
+    private final Size tamanhoMax = new Size();
+
+    /**
+     * Volta o plano para a detecção no quadro inteiro com os parâmetros
+     * padrão.
+     */
+    public void limpa() {
+        detectar = true;
+        semMudanca = false;
+        pulado = ObjDetec.CascOrigin.Indef;
+        roi.x = roi.y = roi.width = roi.height = 0;
+        escala = 1;
+        fatorEscala = FATOR_ESCALA_PADRAO;
+        vizinhos = VIZINHOS_PADRAO;
+        tamanhoMin.width = tamanhoMin.height = 0;
+        tamanhoMax.width = tamanhoMax.height = 0;
+    }
+
+    public boolean isDetectar() {
+        return detectar;
+    }
+
+    public void setDetectar(boolean detectar) {
+        this.detectar = detectar;
+    }
+
+    public boolean isSemMudanca() {
+        return semMudanca;
+    }
+
+    public void setSemMudanca(boolean semMudanca) {
+        this.semMudanca = semMudanca;
+    }
+
+    public ObjDetec.CascOrigin getPulado() {
+        return pulado;
+    }
+
+    public void setPulado(ObjDetec.CascOrigin pulado) {
+        this.pulado = pulado;
+    }
+
+    public Rect getRoi() {
+        return roi;
+    }
+
+    /**
+     * @return Se a detecção é feita só na região de busca.
+     */
+    public boolean temRoi() {
+        return roi.width > 0 && roi.height > 0;
+    }
+
+    public double getEscala() {
+        return escala;
+    }
+
+    public void setEscala(double escala) {
+        this.escala = escala;
+    }
+
+    public double getFatorEscala() {
+        return fatorEscala;
+    }
+
+    public void setFatorEscala(double fatorEscala) {
+        this.fatorEscala = fatorEscala;
+    }
+
+    public int getVizinhos() {
+        return vizinhos;
+    }
+
+    public void setVizinhos(int vizinhos) {
+        this.vizinhos = vizinhos;
+    }
+
+    public Size getTamanhoMin() {
+        return tamanhoMin;
+    }
+
+    public Size getTamanhoMax() {
+        return tamanhoMax;
+    }
+}
@@ -0,0 +1,78 @@
+
+/**
+ * Conjunto limitado de {@link DetectorCascades}, compartilhado por vários
+ * {@linkplain FluxoDeteccao fluxos}. Cada detector tem os seus 3
+ * {@link org.opencv.objdetect.CascadeClassifier CascadeClassifier}s, que não
+ * podem ser usados por dois threads ao mesmo tempo, então um trabalhador
+ * {@linkplain #obtem() retira} um detector, usa e {@linkplain #devolve(DetectorCascades) devolve}.
+ * Os detectores rodam no modo sequencial, pois o paralelismo vem dos
+ * trabalhadores do {@link ServidorDeteccao}.
+ */
+public class PoolDetectores {
+
+    private final DetectorCascades[] todos;
+    private final FilaCircular<DetectorCascades> livres;
+
+    /**
+     * Carrega os cascades de todos os detectores.
+     *
+     * @param numDetectores Quantidade de detectores (cada um com 3 cascades).
+     * @param xmlNormal Caminho do XML do cascade Normal.
+     * @param xmlHsv Caminho do XML do cascade HSV.
+     * @param xmlInRange Caminho do XML do cascade InRange.
+     */
+    public PoolDetectores(int numDetectores, String xmlNormal, String xmlHsv, String xmlInRange) {
+        todos = new DetectorCascades[numDetectores];
+        livres = new FilaCircular<>(numDetectores, FilaCircular.Politica.Bloquear);
+        try {
+            for (int i = 0; i < numDetectores; i++) {
+                todos[i] = new DetectorCascades(xmlNormal, xmlHsv, xmlInRange, false);
+                livres.put(todos[i]);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Retira um detector livre, esperando se todos estiverem em uso.
+     *
+     * @return Detector livre.
+     * @throws InterruptedException Se o thread for interrompido enquanto
+     * espera.
+     */
+    public DetectorCascades obtem() throws InterruptedException {
+        return livres.take();
+    }
+
+    /**
+     * Devolve um detector que não está mais em uso.
+     *
+     * @param d Detector a devolver.
+     * @throws InterruptedException Se o thread for interrompido.
+     */
+    public void devolve(DetectorCascades d) throws InterruptedException {
+        livres.put(d);
+    }
+
+    public int getTamanho() {
+        return todos.length;
+    }
+
+    /**
+     * @return Numero de detectores livres no momento.
+     */
+    public int getLivres() {
+        return livres.size();
+    }
+
+    /**
+     * Libera a memória nativa de todos os detectores. Só deve ser chamado
+     * quando nenhum detector estiver em uso.
+     */
+    public void close() {
+        for (DetectorCascades d : todos)
+            d.close();
+    }
+}
@@ -0,0 +1,75 @@
+
+/**
+ * Conjunto fixo de {@link Quadro}s reaproveitados de um quadro da câmera
+ * para o outro. As matrizes de cada quadro são alocadas pelo OpenCV na
+ * primeira vez que recebem uma imagem de uma resolução, e depois disso são
+ * reusadas enquanto a resolução não mudar. Assim o laço de processamento não
+ * aloca memória nativa nem objetos Java por quadro.
+ * <p>
+ * A memória nativa é liberada na hora, com {@link #release()}, em vez de
+ * depender do finalizer das {@link org.opencv.core.Mat Mat}s.
+ */
+public class PoolQuadros {
+
+    private final Quadro[] todos;
+    private final FilaCircular<Quadro> livres;
+
+    /**
+     * @param numQuadros Quantidade de quadros do pool.
+     */
+    public PoolQuadros(int numQuadros) {
+        todos = new Quadro[numQuadros];
+        livres = new FilaCircular<>(numQuadros, FilaCircular.Politica.Bloquear);
+        try {
+            for (int i = 0; i < numQuadros; i++) {
+                todos[i] = new Quadro();
+                livres.put(todos[i]);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Retira um quadro livre, esperando se todos estiverem em uso.
+     *
+     * @return Quadro livre.
+     * @throws InterruptedException Se o thread for interrompido enquanto
+     * espera.
+     */
+    public Quadro obtem() throws InterruptedException {
+        return livres.take();
+    }
+
+    /**
+     * Devolve um quadro que não está mais em uso.
+     *
+     * @param q Quadro a devolver.
+     * @throws InterruptedException Se o thread for interrompido.
+     */
+    public void devolve(Quadro q) throws InterruptedException {
+        livres.put(q);
+    }
+
+    /**
+     * @return Fila de quadros livres, usada como entrada do primeiro estágio
+     * do {@linkplain PipelineDeteccao pipeline}.
+     */
+    FilaCircular<Quadro> getLivres() {
+        return livres;
+    }
+
+    public int getTamanho() {
+        return todos.length;
+    }
+
+    /**
+     * Libera a memória nativa de todos os quadros. Só deve ser chamado quando
+     * nenhum quadro estiver em uso.
+     */
+    public void release() {
+        for (Quadro q : todos)
+            q.release();
+    }
+}
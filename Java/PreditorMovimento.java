@@ -0,0 +1,223 @@
+
+/**
+ * Prevê a posição do objeto nos quadros em que os cascades não rodam. O
+ * centro do objeto confirmado pela {@link EstruturaAmostras} passa por um
+ * filtro de Kalman de velocidade constante (um por eixo), e o tamanho por uma
+ * média móvel. Os cascades rodam a cada {@link #intervalo} quadros, ou antes
+ * se a incerteza da previsão passa de {@link #incertezaMaxima} vezes o
+ * tamanho do objeto. Nos outros quadros o resultado é a previsão do filtro.
+ * <p>
+ * O intervalo conta a partir do último quadro detectado que chegou à fusão.
+ * Um quadro planejado com detecção e descartado por uma fila do
+ * {@link PipelineDeteccao} não conta como medida: quando a fusão passa do seu
+ * indice sem tê-lo recebido, o próximo quadro é detectado.
+ * <p>
+ * Como o {@link RastreadorROI}, os métodos são sincronizados porque a decisão
+ * é feita na captura e a atualização na fusão, em threads diferentes.
+ */
+public class PreditorMovimento {
+
+    /**
+     * Variância da aceleração do centro, em pixels²/quadro⁴ (ruído do
+     * processo).
+     */
+    private static final double RUIDO_ACELERACAO = 4;
+    /**
+     * Variância da posição medida pelos cascades, em pixels² (ruído da
+     * medida).
+     */
+    private static final double RUIDO_MEDIDA = 16;
+    /**
+     * Peso da medida mais recente na média do tamanho.
+     */
+    private static final double PESO_TAMANHO = 0.5;
+
+    /**
+     * Numero máximo de quadros seguidos sem rodar os cascades, mais um.
+     */
+    private final int intervalo;
+    /**
+     * Maior desvio padrão aceito na previsão do centro, em fração do tamanho
+     * do objeto.
+     */
+    private final double incertezaMaxima;
+
+    private final FiltroEixo eixoX = new FiltroEixo();
+    private final FiltroEixo eixoY = new FiltroEixo();
+    private double largura, altura;
+    private boolean rastreando;
+    /**
+     * Indice do quadro da última medida.
+     */
+    private long indiceMedida;
+    /**
+     * Indice do último quadro detectado que chegou à fusão.
+     */
+    private long indiceDeteccao;
+    /**
+     * Indice do último quadro planejado com detecção, que pode ainda estar a
+     * caminho da fusão ou ter sido descartado.
+     */
+    private long indicePlanejado;
+    /**
+     * Indice do último quadro que chegou à fusão, detectado ou não.
+     */
+    private long indiceFundido = -1;
+
+    /**
+     * Objeto devolvido por {@link #prediz(long)}, reusado a cada quadro.
+     */
+    private final ObjDetec previsao = new ObjDetec();
+
+    /**
+     * @param intervalo A cada quantos quadros os cascades rodam enquanto o
+     * objeto é previsto (1 = todos os quadros).
+     * @param incertezaMaxima Maior desvio padrão aceito na previsão do centro,
+     * em fração do tamanho do objeto.
+     */
+    public PreditorMovimento(int intervalo, double incertezaMaxima) {
+        this.intervalo = Math.max(1, intervalo);
+        this.incertezaMaxima = incertezaMaxima;
+    }
+
+    /**
+     * Decide se os cascades rodam no quadro, marcando no
+     * {@linkplain PlanoDeteccao#setDetectar(boolean) plano}. O plano já deve
+     * estar {@linkplain PlanoDeteccao#limpa() limpo}.
+     *
+     * @param q Quadro a planejar.
+     */
+    public synchronized void planeja(Quadro q) {
+        long indice = q.getIndice();
+        //O quadro planejado ainda não fundido conta; se a fusão já passou dele sem detectá-lo, foi descartado
+        long ultimo = indicePlanejado > indiceDeteccao && indicePlanejado > indiceFundido ? indicePlanejado : indiceDeteccao;
+        boolean detectar = !rastreando
+                || indice - ultimo >= intervalo
+                || incerteza(indice) > incertezaMaxima * Math.min(largura, altura);
+        q.getPlano().setDetectar(detectar);
+        if (detectar)
+            indicePlanejado = indice;
+    }
+
+    /**
+     * Atualiza o filtro com o resultado da fusão de um quadro detectado.
+     *
+     * @param resultado Amostra positiva verdadeira do quadro, ou null se o
+     * objeto foi perdido.
+     * @param indice Indice do quadro.
+     */
+    public synchronized void atualiza(ObjDetec resultado, long indice) {
+        indiceDeteccao = indiceFundido = indice;
+        if (resultado == null) {
+            rastreando = false;
+            return;
+        }
+
+        int x = resultado.getCenter().x;
+        int y = resultado.getCenter().y;
+        if (!rastreando) {
+            eixoX.inicia(x);
+            eixoY.inicia(y);
+            largura = resultado.getWidth();
+            altura = resultado.getHeight();
+        } else {
+            long passos = Math.max(1, indice - indiceMedida);
+            eixoX.corrige(x, passos);
+            eixoY.corrige(y, passos);
+            largura = PESO_TAMANHO * resultado.getWidth() + (1 - PESO_TAMANHO) * largura;
+            altura = PESO_TAMANHO * resultado.getHeight() + (1 - PESO_TAMANHO) * altura;
+        }
+        indiceMedida = indice;
+        rastreando = true;
+    }
+
+    /**
+     * Marca que um quadro sem detecção chegou à fusão.
+     *
+     * @param indice Indice do quadro.
+     */
+    public synchronized void avanca(long indice) {
+        indiceFundido = indice;
+    }
+
+    /**
+     * Prevê o objeto em um quadro sem detecção.
+     *
+     * @param indice Indice do quadro.
+     * @return O objeto previsto, que é sempre o mesmo objeto reusado, ou null
+     * se não há objeto rastreado.
+     */
+    public synchronized ObjDetec prediz(long indice) {
+        if (!rastreando)
+            return null;
+        long passos = indice - indiceMedida;
+        previsao.set((int) Math.round(eixoX.posicao(passos)), (int) Math.round(eixoY.posicao(passos)),
+                (int) Math.round(altura), (int) Math.round(largura), ObjDetec.CascOrigin.Indef, false);
+        return previsao;
+    }
+
+    /**
+     * @return Se existe um objeto sendo previsto.
+     */
+    public synchronized boolean isRastreando() {
+        return rastreando;
+    }
+
+    /**
+     * @return Desvio padrão da previsão do centro no quadro, em pixels (o
+     * maior dos dois eixos).
+     */
+    private double incerteza(long indice) {
+        long passos = indice - indiceMedida;
+        return Math.sqrt(Math.max(eixoX.variancia(passos), eixoY.variancia(passos)));
+    }
+
+    /**
+     * Filtro de Kalman de um eixo, com estado posição e velocidade.
+     */
+    private static class FiltroEixo {
+
+        private double p, v;
+        /**
+         * Covariância do estado.
+         */
+        private double p00, p01, p11;
+
+        void inicia(double z) {
+            p = z;
+            v = 0;
+            p00 = RUIDO_MEDIDA;
+            p01 = 0;
+            p11 = RUIDO_MEDIDA;
+        }
+
+        /**
+         * Avança o estado dt quadros e corrige com a medida z.
+         */
+        void corrige(double z, long dt) {
+            //Previsão
+            p += v * dt;
+            double a00 = variancia(dt);
+            double a01 = p01 + dt * p11 + RUIDO_ACELERACAO * dt * dt * dt / 2;
+            double a11 = p11 + RUIDO_ACELERACAO * dt * dt;
+            //Correção
+            double s = a00 + RUIDO_MEDIDA;
+            double k0 = a00 / s;
+            double k1 = a01 / s;
+            double erro = z - p;
+            p += k0 * erro;
+            v += k1 * erro;
+            p00 = (1 - k0) * a00;
+            p01 = (1 - k0) * a01;
+            p11 = a11 - k1 * a01;
+        }
+
+        double posicao(long dt) {
+            return p + v * dt;
+        }
+
+        double variancia(long dt) {
+            return p00 + 2 * dt * p01 + dt * dt * p11 + RUIDO_ACELERACAO * dt * dt * dt * dt / 4;
+        }
+    }
+}
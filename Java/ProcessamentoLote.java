@@ -0,0 +1,469 @@
+
+import org.opencv.core.Core;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Roda a detecção sobre uma pasta de vídeos gravados, usando todos os
+ * núcleos. Cada vídeo é dividido em segmentos de tamanho fixo, e os segmentos
+ * (de todos os vídeos) são processados em paralelo por um pool de
+ * trabalhadores que divide um {@link PoolDetectores}, como no
+ * {@link ServidorDeteccao}.
+ * <p>
+ * Cada segmento tem a sua própria {@link EstruturaAmostras}. Para que o
+ * resultado não dependa da divisão, o segmento começa {@code numFrames}
+ * quadros antes do seu início (aquecimento): esses quadros passam pela fusão
+ * só para encher a estrutura, e o resultado deles fica com o segmento
+ * anterior. Pelo mesmo motivo a detecção é sempre no quadro inteiro, sem
+ * {@link RastreadorROI}, {@link EscalaAdaptativa} ou previsão, que dependem
+ * de todos os quadros anteriores.
+ * <p>
+ * Quando todos os segmentos de um vídeo terminam, as detecções fundidas de
+ * cada quadro são gravadas em ordem em um arquivo CSV (mesmas colunas de
+ * {@link RegistroDeteccoes}, com o tempo do vídeo) ou JSON na pasta de saída.
+ * <p>
+ * Uso: {@code ProcessamentoLote pasta [-saida pasta] [-formato csv|json]
+ * [-segmento quadros] [-trabalhadores n] [-frames n]}.
+ */
+public class ProcessamentoLote {
+
+    private static final String XML_NORMAL = "18N.xml";
+    private static final String XML_HSV = "21H.xml";
+    private static final String XML_INRANGE = "20In.xml";
+    /**
+     * Campos por quadro em {@link Segmento#resultados}: tempo (ms do vídeo),
+     * x e y do centro, largura e altura (zero sem objeto).
+     */
+    private static final int CAMPOS = 5;
+
+    private static final String[] EXTENSOES = {".avi", ".mp4", ".mkv", ".mov", ".mpg", ".mpeg", ".m4v", ".wmv"};
+
+    /**
+     * Formato dos arquivos de saída.
+     */
+    public enum Formato {
+        Csv(".csv"), Json(".json");
+
+        public final String extensao;
+
+        private Formato(String extensao) {
+            this.extensao = extensao;
+        }
+    }
+
+    private final int numFrames;
+    private final int tamanhoSegmento;
+    private final Formato formato;
+    private final File pastaSaida;
+    private final PoolDetectores detectores;
+    private final ExecutorService trabalhadores;
+
+    private final AtomicLong quadros = new AtomicLong();
+    private final AtomicInteger falhas = new AtomicInteger();
+
+    /**
+     * @param numTrabalhadores Threads que processam os segmentos.
+     * @param numFrames Numero de quadros guardados em cada
+     * {@link EstruturaAmostras}, que é também o aquecimento dos segmentos.
+     * @param tamanhoSegmento Quadros por segmento.
+     * @param formato Formato dos arquivos de saída.
+     * @param pastaSaida Pasta onde os resultados são gravados.
+     * @param xmlNormal Caminho do XML do cascade Normal.
+     * @param xmlHsv Caminho do XML do cascade HSV.
+     * @param xmlInRange Caminho do XML do cascade InRange.
+     */
+    public ProcessamentoLote(int numTrabalhadores, int numFrames, int tamanhoSegmento, Formato formato, File pastaSaida,
+            String xmlNormal, String xmlHsv, String xmlInRange) {
+        if (tamanhoSegmento <= 0)
+            throw new IllegalArgumentException("O segmento deve ter pelo menos um quadro.");
+        this.numFrames = numFrames;
+        this.tamanhoSegmento = tamanhoSegmento;
+        this.formato = formato;
+        this.pastaSaida = pastaSaida;
+        detectores = new PoolDetectores(numTrabalhadores, xmlNormal, xmlHsv, xmlInRange);
+        trabalhadores = Executors.newFixedThreadPool(numTrabalhadores, r -> {
+            Thread t = new Thread(r, "lote-trabalhador");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Processa os vídeos e espera todos terminarem.
+     *
+     * @param arquivos Vídeos a processar.
+     * @return Numero de vídeos processados sem erro.
+     * @throws InterruptedException Se o thread for interrompido.
+     */
+    public int processa(File[] arquivos) throws InterruptedException {
+        ArrayList<Segmento> segmentos = new ArrayList<>();
+        for (File f : arquivos) {
+            Video v = new Video(f);
+            if (v.segmentos.length == 0) {
+                System.err.println("Não foi possivel abrir " + f);
+                falhas.incrementAndGet();
+                continue;
+            }
+            segmentos.addAll(Arrays.asList(v.segmentos));
+        }
+        CountDownLatch fim = new CountDownLatch(segmentos.size());
+        for (Segmento s : segmentos)
+            trabalhadores.execute(() -> {
+                try {
+                    s.processa();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    s.video.falhou = true;
+                } catch (RuntimeException ex) {
+                    System.err.println(s + ": " + ex);
+                    s.video.falhou = true;
+                } finally {
+                    s.video.segmentoTerminado();
+                    fim.countDown();
+                }
+            });
+        fim.await();
+        return arquivos.length - falhas.get();
+    }
+
+    /**
+     * @return Total de quadros processados, sem contar o aquecimento.
+     */
+    public long getQuadros() {
+        return quadros.get();
+    }
+
+    /**
+     * Encerra os trabalhadores e libera os detectores.
+     */
+    public void close() {
+        trabalhadores.shutdown();
+        try {
+            trabalhadores.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        detectores.close();
+    }
+
+    /**
+     * Um arquivo de vídeo e os seus segmentos. O último segmento a terminar
+     * grava o resultado.
+     */
+    private class Video {
+
+        private final File arquivo;
+        private final Segmento[] segmentos;
+        private final AtomicInteger restantes;
+        private volatile boolean falhou;
+
+        Video(File arquivo) {
+            this.arquivo = arquivo;
+            VideoCapture cap = new VideoCapture();
+            if (!cap.open(arquivo.getPath()) || !cap.isOpened()) {
+                segmentos = new Segmento[0];
+                restantes = new AtomicInteger();
+                return;
+            }
+            long total = (long) cap.get(Videoio.CAP_PROP_FRAME_COUNT);
+            cap.release();
+
+            if (total <= 0) {
+                //Sem o numero de quadros, o vídeo é lido inteiro em um segmento só
+                segmentos = new Segmento[]{new Segmento(this, 0, Long.MAX_VALUE)};
+            } else {
+                int n = (int) ((total + tamanhoSegmento - 1) / tamanhoSegmento);
+                segmentos = new Segmento[n];
+                for (int i = 0; i < n; i++) {
+                    long inicio = (long) i * tamanhoSegmento;
+                    //O último segmento vai até o fim, mesmo se a contagem do arquivo estiver errada
+                    long fim = i == n - 1 ? Long.MAX_VALUE : inicio + tamanhoSegmento;
+                    segmentos[i] = new Segmento(this, inicio, fim);
+                }
+            }
+            restantes = new AtomicInteger(segmentos.length);
+        }
+
+        void segmentoTerminado() {
+            if (restantes.decrementAndGet() != 0)
+                return;
+            if (falhou) {
+                falhas.incrementAndGet();
+                System.err.println(arquivo + ": resultado não gravado.");
+                return;
+            }
+            avisaLacunas();
+            File saida = new File(pastaSaida, arquivo.getName() + formato.extensao);
+            try {
+                grava(saida);
+            } catch (IOException ex) {
+                falhas.incrementAndGet();
+                System.err.println("Não foi possivel gravar " + saida + ": " + ex);
+                return;
+            }
+            long total = 0;
+            long comObjeto = 0;
+            for (Segmento s : segmentos) {
+                total += s.tamanho;
+                comObjeto += s.comObjeto;
+            }
+            System.out.println(String.format("%s: %d quadros, %d com objeto", arquivo.getName(), total, comObjeto));
+        }
+
+        /**
+         * Avisa dos quadros que ficaram sem resultado no meio do vídeo: um
+         * segmento que terminou antes do fim, seguido de um que ainda leu
+         * quadros (um erro de leitura no meio do arquivo, por exemplo). Os
+         * indices desses quadros faltam na saída. Segmentos que terminam
+         * antes porque o vídeo acabou não deixam lacuna.
+         */
+        private void avisaLacunas() {
+            boolean depois = false; //Algum segmento seguinte leu quadros
+            for (int i = segmentos.length - 1; i >= 0; i--) {
+                Segmento s = segmentos[i];
+                long lido = s.inicio + s.tamanho;
+                if (depois && lido < s.fim)
+                    System.err.println(String.format("%s: quadros [%d, %d) não foram lidos e faltam no resultado.",
+                            arquivo.getName(), lido, s.fim));
+                depois |= s.tamanho > 0;
+            }
+        }
+
+        private void grava(File saida) throws IOException {
+            try (PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(saida)))) {
+                boolean json = formato == Formato.Json;
+                if (json) {
+                    w.print("{\"arquivo\":\"");
+                    w.print(arquivo.getName().replace("\\", "\\\\").replace("\"", "\\\""));
+                    w.println("\",\"quadros\":[");
+                } else {
+                    w.println("indice,tempo,encontrado,x,y,largura,altura");
+                }
+                boolean primeiro = true;
+                for (Segmento s : segmentos)
+                    for (int i = 0; i < s.tamanho; i++) {
+                        int[] r = s.resultados;
+                        int k = i * CAMPOS;
+                        long indice = s.inicio + i;
+                        if (json) {
+                            if (!primeiro)
+                                w.println(',');
+                            w.print("{\"indice\":" + indice + ",\"tempo\":" + r[k]);
+                            if (r[k + 3] > 0)
+                                w.print(",\"x\":" + r[k + 1] + ",\"y\":" + r[k + 2] + ",\"largura\":" + r[k + 3] + ",\"altura\":" + r[k + 4]);
+                            w.print('}');
+                        } else {
+                            w.print(indice + "," + r[k]);
+                            if (r[k + 3] > 0)
+                                w.println(",1," + r[k + 1] + "," + r[k + 2] + "," + r[k + 3] + "," + r[k + 4]);
+                            else
+                                w.println(",0,,,,");
+                        }
+                        primeiro = false;
+                    }
+                if (json)
+                    w.println("]}");
+                if (w.checkError())
+                    throw new IOException("Erro de escrita.");
+            }
+        }
+    }
+
+    /**
+     * Faixa [inicio, fim) de quadros de um vídeo, processada por um
+     * trabalhador com a sua própria captura, {@link Quadro} e
+     * {@link EstruturaAmostras}.
+     */
+    private class Segmento {
+
+        private final Video video;
+        private final long inicio;
+        private final long fim;
+        private int[] resultados = new int[0];
+        private int tamanho;
+        private int comObjeto;
+
+        Segmento(Video video, long inicio, long fim) {
+            this.video = video;
+            this.inicio = inicio;
+            this.fim = fim;
+        }
+
+        void processa() throws InterruptedException {
+            VideoCapture cap = new VideoCapture();
+            Quadro quadro = new Quadro();
+            try {
+                if (!cap.open(video.arquivo.getPath()))
+                    throw new IllegalStateException("Não foi possivel abrir o vídeo.");
+                long aquecimento = Math.min(inicio, numFrames);
+                if (!posiciona(cap, inicio - aquecimento))
+                    return; //A contagem de quadros do arquivo passou do fim: segmento vazio
+                EstruturaAmostras amostras = new EstruturaAmostras(numFrames);
+                if (fim != Long.MAX_VALUE)
+                    resultados = new int[(int) (fim - inicio) * CAMPOS];
+
+                for (long indice = inicio - aquecimento; indice < fim; indice++) {
+                    long t = System.nanoTime();
+                    if (!cap.read(quadro.getNormal()) || quadro.getNormal().empty())
+                        break;
+                    Metricas.CAPTURA.registraDesde(t);
+                    int tempo = (int) cap.get(Videoio.CAP_PROP_POS_MSEC);
+                    quadro.setIndice(indice);
+                    quadro.setTempoCaptura(System.nanoTime());
+                    quadro.getPlano().limpa();
+
+                    DetectorCascades detector = detectores.obtem();
+                    try {
+                        detector.detecta(quadro);
+                    } finally {
+                        detectores.devolve(detector);
+                    }
+                    amostras.saveAllObjs(quadro.getDetNormal(), quadro.getDetHSV(), quadro.getDetInRange());
+                    t = System.nanoTime();
+                    ObjDetec o = amostras.evaluateSamples();
+                    Metricas.FUSAO.registraDesde(t);
+                    if (indice >= inicio)
+                        guarda(tempo, o);
+                }
+            } finally {
+                cap.release();
+                quadro.release();
+            }
+        }
+
+        /**
+         * Leva a captura até o quadro pedido. O OpenCV procura o quadro-chave
+         * anterior e decodifica até o pedido, mas alguns formatos não aceitam
+         * a procura ou param em outro quadro; nesses casos o vídeo é lido do
+         * começo até lá.
+         *
+         * @return Falso se o vídeo termina antes do quadro, o que acontece
+         * quando a contagem de quadros do arquivo é maior que a real (vídeos
+         * com taxa variável ou danificados).
+         */
+        private boolean posiciona(VideoCapture cap, long alvo) {
+            if (alvo == 0)
+                return true;
+            if (cap.set(Videoio.CAP_PROP_POS_FRAMES, alvo) && (long) cap.get(Videoio.CAP_PROP_POS_FRAMES) == alvo)
+                return true;
+            cap.release();
+            if (!cap.open(video.arquivo.getPath()))
+                throw new IllegalStateException("Não foi possivel reabrir o vídeo.");
+            for (long i = 0; i < alvo; i++)
+                if (!cap.grab())
+                    return false;
+            return true;
+        }
+
+        private void guarda(int tempo, ObjDetec o) {
+            int k = tamanho * CAMPOS;
+            if (resultados.length < k + CAMPOS)
+                resultados = Arrays.copyOf(resultados, Math.max(k + CAMPOS, resultados.length * 2));
+            resultados[k] = tempo;
+            if (o != null) {
+                resultados[k + 1] = o.getCenter().x;
+                resultados[k + 2] = o.getCenter().y;
+                resultados[k + 3] = o.getWidth();
+                resultados[k + 4] = o.getHeight();
+                comObjeto++;
+            }
+            tamanho++;
+            quadros.incrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            return video.arquivo.getName() + "[" + inicio + "," + (fim == Long.MAX_VALUE ? "fim" : String.valueOf(fim)) + ")";
+        }
+    }
+
+    /**
+     * @return Vídeos da pasta, em ordem de nome.
+     */
+    private static File[] videos(File pasta) {
+        File[] arquivos = pasta.listFiles(f -> {
+            String nome = f.getName().toLowerCase(Locale.ROOT);
+            if (!f.isFile())
+                return false;
+            for (String e : EXTENSOES)
+                if (nome.endsWith(e))
+                    return true;
+            return false;
+        });
+        if (arquivos == null)
+            return new File[0];
+        Arrays.sort(arquivos);
+        return arquivos;
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length == 0) {
+            System.err.println("Uso: ProcessamentoLote pasta [-saida pasta] [-formato csv|json] [-segmento quadros] [-trabalhadores n] [-frames n]");
+            return;
+        }
+        File pasta = new File(args[0]);
+        File saida = new File(pasta, "deteccoes");
+        Formato formato = Formato.Csv;
+        int segmento = 3000;
+        int numTrabalhadores = Runtime.getRuntime().availableProcessors();
+        int numFrames = 5;
+        for (int i = 1; i + 1 < args.length; i += 2)
+            switch (args[i]) {
+                case "-saida":
+                    saida = new File(args[i + 1]);
+                    break;
+                case "-formato":
+                    formato = "json".equalsIgnoreCase(args[i + 1]) ? Formato.Json : Formato.Csv;
+                    break;
+                case "-segmento":
+                    segmento = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-trabalhadores":
+                    numTrabalhadores = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-frames":
+                    numFrames = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Opção desconhecida: " + args[i]);
+            }
+
+        File[] arquivos = videos(pasta);
+        if (arquivos.length == 0) {
+            System.err.println("Nenhum vídeo em " + pasta);
+            return;
+        }
+        if (!saida.isDirectory() && !saida.mkdirs()) {
+            System.err.println("Não foi possivel criar " + saida);
+            return;
+        }
+
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        ProcessamentoLote lote = new ProcessamentoLote(numTrabalhadores, numFrames, segmento, formato, saida,
+                LocalizadorCascades.resolve(XML_NORMAL), LocalizadorCascades.resolve(XML_HSV),
+                LocalizadorCascades.resolve(XML_INRANGE));
+        long inicio = System.nanoTime();
+        int ok = lote.processa(arquivos);
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        lote.close();
+
+        System.out.println(String.format("%d de %d vídeos, %d quadros em %.1f s (%.1f quadros/s)",
+                ok, arquivos.length, lote.getQuadros(), segundos, lote.getQuadros() / segundos));
+        System.out.println(Metricas.relatorio());
+    }
+}
@@ -0,0 +1,356 @@
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+
+/**
+ * Conjunto de buffers de um quadro (frame) processado pela detecção. Guarda a
+ * imagem capturada, as imagens tratadas para os cascades
+ * {@linkplain ObjDetec.CascOrigin#HSV HSV} e
+ * {@linkplain ObjDetec.CascOrigin#InRange InRange}, e as detecções de cada
+ * cascade. As matrizes são reaproveitadas de um quadro para o outro.
+ * <p>
+ * Os cascades rodam sobre a {@linkplain #getImagemDeteccao() imagem de detecção},
+ * que segue o {@linkplain PlanoDeteccao plano} do quadro: pode ser só um
+ * recorte da região de busca, e pode estar reduzida. As detecções são levadas
+ * de volta para as coordenadas do quadro inteiro antes de chegar na
+ * {@link EstruturaAmostras}.
+ */
+public class Quadro {
+
+    /**
+     * Imagem lida da câmera antes da mudança de escala. Só é usada quando a
+     * escala é diferente de 1, para que o resize não realoque a imagem
+     * normal a cada quadro.
+     */
+    private final Mat captura = new Mat();
+    /**
+     * Imagem capturada da câmera, sem transformação.
+     */
+    private final Mat normal = new Mat();
+    /**
+     * Cópia da região de busca da imagem normal.
+     *
+     * @see PlanoDeteccao#getRoi()
+     */
+    private final Mat recorte = new Mat();
+    /**
+     * Imagem (ou recorte) reduzida para a escala da detecção.
+     *
+     * @see PlanoDeteccao#getEscala()
+     */
+    private final Mat reduzida = new Mat();
+    /**
+     * Imagem convertida para o espaço de cores HSV.
+     */
+    private final Mat hsv = new Mat();
+    /**
+     * Imagem binária gerada com InRange a partir da imagem HSV.
+     */
+    private final Mat inRange = new Mat();
+
+    /**
+     * Detecções do cascade {@linkplain ObjDetec.CascOrigin#Normal Normal}.
+     */
+    private final MatOfRect detNormal = new MatOfRect();
+    /**
+     * Detecções do cascade {@linkplain ObjDetec.CascOrigin#HSV HSV}.
+     */
+    private final MatOfRect detHSV = new MatOfRect();
+    /**
+     * Detecções do cascade {@linkplain ObjDetec.CascOrigin#InRange InRange}.
+     */
+    private final MatOfRect detInRange = new MatOfRect();
+
+    /**
+     * Como os cascades devem rodar neste quadro.
+     */
+    private final PlanoDeteccao plano = new PlanoDeteccao();
+    private final Size tamanhoRecorte = new Size();
+    private final Point centroRecorte = new Point();
+    private final Size tamanhoReduzida = new Size();
+
+    /**
+     * Numero sequencial do quadro, dado na captura.
+     */
+    private long indice;
+    /**
+     * Momento da captura ({@link System#nanoTime()}).
+     */
+    private long tempoCaptura;
+    /**
+     * Amostra positiva verdadeira encontrada na fusão. Os valores são
+     * copiados para este objeto, porque o devolvido por
+     * {@link EstruturaAmostras#evaluateSamples()} é reusado no quadro
+     * seguinte.
+     */
+    private final ObjDetec resultado = new ObjDetec();
+    private boolean temResultado;
+    /**
+     * Cascade que o {@link EscalonadorCascades} poderia ter pulado, mas rodou
+     * para conferir se pulá-lo muda o resultado. Indefinido quando não há
+     * auditoria no quadro.
+     */
+    private ObjDetec.CascOrigin auditoria = ObjDetec.CascOrigin.Indef;
+    /**
+     * Objetos rastreados pelo {@link RastreadorMultiplo}: identificador,
+     * centro e tamanho de cada um, em sequência.
+     */
+    private int[] alvos = new int[5 * 8];
+    private int numAlvos;
+    /**
+     * Imagem reduzida em tons de cinza comparada pelo {@link FiltroMovimento}.
+     * Fica com o quadro para que a referência do filtro só seja atualizada
+     * quando o quadro chega à fusão.
+     */
+    private byte[] cinzaMovimento = new byte[0];
+
+    /**
+     * Endereço dos dados de cada imagem no quadro anterior, usado para
+     * perceber quando o OpenCV realocou alguma delas.
+     *
+     * @see #confereEnderecos()
+     */
+    private final long[] enderecos = new long[6];
+
+    public Mat getCaptura() {
+        return captura;
+    }
+
+    public Mat getNormal() {
+        return normal;
+    }
+
+    public Mat getHsv() {
+        return hsv;
+    }
+
+    public Mat getInRange() {
+        return inRange;
+    }
+
+    public MatOfRect getDetNormal() {
+        return detNormal;
+    }
+
+    public MatOfRect getDetHSV() {
+        return detHSV;
+    }
+
+    public MatOfRect getDetInRange() {
+        return detInRange;
+    }
+
+    /**
+     * @param tamanho Numero de pixels da imagem reduzida.
+     * @return O vetor da imagem reduzida do {@link FiltroMovimento}, realocado
+     * só quando o tamanho muda.
+     */
+    public byte[] getCinzaMovimento(int tamanho) {
+        if (cinzaMovimento.length != tamanho)
+            cinzaMovimento = new byte[tamanho];
+        return cinzaMovimento;
+    }
+
+    public byte[] getCinzaMovimento() {
+        return cinzaMovimento;
+    }
+
+    public PlanoDeteccao getPlano() {
+        return plano;
+    }
+
+    /**
+     * Gera a imagem de detecção seguindo o plano do quadro. Se existe uma
+     * região de busca, ela é copiada para o recorte usando
+     * {@link Imgproc#getRectSubPix(Mat, Size, Point, Mat) getRectSubPix} com o
+     * centro alinhado aos pixels, o que dá uma cópia exata sem criar uma
+     * {@link Mat} nova como o {@link Mat#submat(Rect) submat}. Depois, se a
+     * escala for menor que 1, a imagem é reduzida.
+     */
+    public void preparaImagemDeteccao() {
+        long inicio = System.nanoTime();
+        Mat base = normal;
+        if (plano.temRoi()) {
+            Rect roi = plano.getRoi();
+            tamanhoRecorte.width = roi.width;
+            tamanhoRecorte.height = roi.height;
+            centroRecorte.x = roi.x + (roi.width - 1) * 0.5;
+            centroRecorte.y = roi.y + (roi.height - 1) * 0.5;
+            Imgproc.getRectSubPix(normal, tamanhoRecorte, centroRecorte, recorte);
+            base = recorte;
+        }
+        if (plano.getEscala() < 1) {
+            tamanhoReduzida.width = Math.max(1, Math.round(base.cols() * plano.getEscala()));
+            tamanhoReduzida.height = Math.max(1, Math.round(base.rows() * plano.getEscala()));
+            Imgproc.resize(base, reduzida, tamanhoReduzida, 0, 0, Imgproc.INTER_AREA);
+        }
+        if (base != normal || plano.getEscala() < 1)
+            Metricas.ESCALA.registraDesde(inicio);
+    }
+
+    /**
+     * @return Imagem sobre a qual os cascades rodam, gerada por
+     * {@link #preparaImagemDeteccao()}.
+     */
+    public Mat getImagemDeteccao() {
+        if (plano.getEscala() < 1)
+            return reduzida;
+        return plano.temRoi() ? recorte : normal;
+    }
+
+    public long getIndice() {
+        return indice;
+    }
+
+    public void setIndice(long indice) {
+        this.indice = indice;
+    }
+
+    public long getTempoCaptura() {
+        return tempoCaptura;
+    }
+
+    public void setTempoCaptura(long tempoCaptura) {
+        this.tempoCaptura = tempoCaptura;
+    }
+
+    /**
+     * @return Amostra positiva verdadeira encontrada na fusão, ou null.
+     */
+    public ObjDetec getResultado() {
+        return temResultado ? resultado : null;
+    }
+
+    /**
+     * Copia os valores do resultado da fusão para o quadro.
+     *
+     * @param resultado Amostra positiva verdadeira, ou null se não há.
+     */
+    public void setResultado(ObjDetec resultado) {
+        temResultado = resultado != null;
+        if (temResultado)
+            this.resultado.set(resultado);
+    }
+
+    public void limpaAlvos() {
+        numAlvos = 0;
+    }
+
+    /**
+     * Inclui um objeto rastreado.
+     *
+     * @param id Identificador da trilha.
+     * @param cx Coordenada x do centro.
+     * @param cy Coordenada y do centro.
+     * @param largura Largura.
+     * @param altura Altura.
+     */
+    public void adicionaAlvo(int id, int cx, int cy, int largura, int altura) {
+        int k = numAlvos * 5;
+        if (alvos.length < k + 5)
+            alvos = Arrays.copyOf(alvos, alvos.length * 2);
+        alvos[k] = id;
+        alvos[k + 1] = cx;
+        alvos[k + 2] = cy;
+        alvos[k + 3] = largura;
+        alvos[k + 4] = altura;
+        numAlvos++;
+    }
+
+    public int getNumAlvos() {
+        return numAlvos;
+    }
+
+    public int getIdAlvo(int i) {
+        return alvos[i * 5];
+    }
+
+    /**
+     * Copia o centro e o tamanho de um objeto rastreado.
+     *
+     * @param i Indice do objeto, entre 0 e {@link #getNumAlvos()}.
+     * @param destino Objeto que recebe os valores.
+     * @return O próprio destino.
+     */
+    public ObjDetec getAlvo(int i, ObjDetec destino) {
+        int k = i * 5;
+        destino.set(alvos[k + 1], alvos[k + 2], alvos[k + 4], alvos[k + 3], ObjDetec.CascOrigin.Indef, true);
+        return destino;
+    }
+
+    public ObjDetec.CascOrigin getAuditoria() {
+        return auditoria;
+    }
+
+    public void setAuditoria(ObjDetec.CascOrigin auditoria) {
+        this.auditoria = auditoria;
+    }
+
+    /**
+     * Retorna a matriz de detecções de um cascade.
+     *
+     * @param orig Tipo do cascade.
+     * @return Matriz de retângulos detectados pelo cascade.
+     * @throws Error Se a origem for {@linkplain ObjDetec.CascOrigin#Indef indefinida}.
+     */
+    public MatOfRect getDeteccoes(ObjDetec.CascOrigin orig) {
+        switch (orig) {
+            case Normal:
+                return detNormal;
+            case HSV:
+                return detHSV;
+            case InRange:
+                return detInRange;
+            default:
+                throw new Error("Não existem detecções para o tipo de cascade indefinido.");
+        }
+    }
+
+    /**
+     * Confere se alguma imagem do quadro teve a memória nativa realocada
+     * desde a última chamada, comparando o endereço dos dados.
+     *
+     * @return Numero de imagens realocadas.
+     */
+    public int confereEnderecos() {
+        int realocadas = 0;
+        realocadas += confere(0, captura);
+        realocadas += confere(1, normal);
+        realocadas += confere(2, hsv);
+        realocadas += confere(3, inRange);
+        realocadas += confere(4, recorte);
+        realocadas += confere(5, reduzida);
+        return realocadas;
+    }
+
+    private int confere(int i, Mat m) {
+        long atual = m.dataAddr();
+        int mudou = (enderecos[i] != atual) ? 1 : 0;
+        enderecos[i] = atual;
+        return mudou;
+    }
+
+    /**
+     * Libera a memória nativa de todas as matrizes do quadro. Depois disso o
+     * quadro não deve mais ser usado.
+     */
+    public void release() {
+        captura.release();
+        normal.release();
+        recorte.release();
+        reduzida.release();
+        hsv.release();
+        inRange.release();
+        detNormal.release();
+        detHSV.release();
+        detInRange.release();
+        temResultado = false;
+        numAlvos = 0;
+    }
+}
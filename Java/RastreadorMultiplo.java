@@ -0,0 +1,340 @@
+
+import java.util.Arrays;
+
+/**
+ * Rastreia vários objetos ao mesmo tempo, dando a cada um uma trilha com um
+ * identificador que não muda entre os quadros. A {@link EstruturaAmostras}
+ * escolhe uma única amostra verdadeira positiva por quadro; aqui são usados
+ * todos os {@linkplain EstruturaAmostras#getCandidates() candidatos} do
+ * quadro (objetos encontrados em pelo menos dois cascades).
+ * <p>
+ * A cada quadro:
+ * <ol>
+ * <li>candidatos repetidos (o mesmo objeto visto a partir de cada uma das
+ * suas detecções) são juntados, mantendo o primeiro de cada grupo com IoU
+ * acima do mínimo;</li>
+ * <li>a posição de cada trilha é prevista pelo seu movimento médio;</li>
+ * <li>os pares trilha/candidato com IoU acima do mínimo são procurados em uma
+ * {@link GradeEspacial} dos candidatos, então cada trilha só é comparada com
+ * os candidatos próximos;</li>
+ * <li>os pares são ordenados pelo IoU e associados de forma gulosa, do maior
+ * para o menor. Com objetos que se sobrepõem pouco, como aqui, o resultado é
+ * praticamente o mesmo da associação ótima (húngara), que custaria
+ * O(n³);</li>
+ * <li>trilhas sem candidato seguem pela previsão e são removidas depois de
+ * {@code maxPerdidos} quadros, e candidatos sem trilha abrem trilhas novas.</li>
+ * </ol>
+ * O custo é O(n log n) no numero de pares próximos, que cresce quase
+ * linearmente com o numero de objetos.
+ * <p>
+ * Uma trilha nasce como {@linkplain Estado#Tentativa tentativa}, é
+ * {@linkplain Estado#Confirmada confirmada} depois de
+ * {@code acertosConfirmacao} quadros seguidos com candidato, e fica
+ * {@linkplain Estado#Perdida perdida} enquanto não tem candidato. Uma
+ * tentativa sem candidato é removida na hora.
+ * <p>
+ * Deve ser usado por um só thread (o da fusão). As trilhas são guardadas em
+ * vetores, como no {@link ArmazemDeteccoes}, e os vetores são reusados entre
+ * os quadros.
+ */
+public class RastreadorMultiplo {
+
+    /**
+     * Estado de uma trilha.
+     */
+    public enum Estado {
+        Tentativa, Confirmada, Perdida
+    }
+
+    /**
+     * Peso do movimento mais recente na média do movimento.
+     */
+    private static final double PESO_MOVIMENTO = 0.5;
+
+    private final double iouMinimo;
+    private final int acertosConfirmacao;
+    private final int maxPerdidos;
+
+    private int tamanho;
+    private int[] id = new int[16];
+    private int[] x = new int[16];
+    private int[] y = new int[16];
+    private int[] largura = new int[16];
+    private int[] altura = new int[16];
+    private double[] vx = new double[16];
+    private double[] vy = new double[16];
+    private int[] acertos = new int[16];
+    private int[] perdidos = new int[16];
+    private boolean[] confirmada = new boolean[16];
+    private int proximoId = 1;
+
+    private final GradeEspacial grade = new GradeEspacial();
+    private int[] vizinhos = new int[16];
+    /**
+     * Candidatos que sobraram depois de juntar os repetidos, e a trilha
+     * associada a cada um (-1 se nenhuma).
+     */
+    private boolean[] mantido = new boolean[16];
+    private int[] trilhaDoCandidato = new int[16];
+    private boolean[] associada = new boolean[16];
+    /**
+     * Pares trilha/candidato: IoU (em milionésimos) nos 32 bits altos e o
+     * indice do par nos baixos, para ordenar só um vetor de long.
+     */
+    private long[] pares = new long[64];
+    private int[] parTrilha = new int[64];
+    private int[] parCandidato = new int[64];
+
+    /**
+     * @param iouMinimo IoU mínimo para associar um candidato a uma trilha, e
+     * para considerar dois candidatos o mesmo objeto.
+     * @param acertosConfirmacao Quadros seguidos com candidato para
+     * confirmar uma trilha.
+     * @param maxPerdidos Quadros seguidos sem candidato antes de remover uma
+     * trilha confirmada. Normalmente é a janela da
+     * {@link EstruturaAmostras}.
+     */
+    public RastreadorMultiplo(double iouMinimo, int acertosConfirmacao, int maxPerdidos) {
+        this.iouMinimo = iouMinimo;
+        this.acertosConfirmacao = acertosConfirmacao;
+        this.maxPerdidos = maxPerdidos;
+    }
+
+    /**
+     * Atualiza as trilhas com os candidatos de um quadro.
+     *
+     * @param candidatos Objetos fundidos do quadro (centro e tamanho).
+     */
+    public void atualiza(ArmazemDeteccoes candidatos) {
+        int m = candidatos.size();
+        garanteCandidatos(m);
+
+        //Célula do tamanho do maior objeto: caixas com IoU > 0 têm os centros mais perto que isso
+        int lado = 1;
+        for (int i = 0; i < m; i++)
+            lado = Math.max(lado, Math.max(candidatos.getWidth(i), candidatos.getHeight(i)));
+        for (int t = 0; t < tamanho; t++)
+            lado = Math.max(lado, Math.max(largura[t], altura[t]));
+        grade.indexa(candidatos.x, candidatos.y, m, lado);
+
+        juntaRepetidos(candidatos, m);
+        int nPares = procuraPares(candidatos);
+
+        //Associação gulosa, do maior IoU para o menor
+        Arrays.sort(pares, 0, nPares);
+        Arrays.fill(associada, 0, tamanho, false);
+        for (int k = nPares - 1; k >= 0; k--) {
+            int p = (int) pares[k];
+            int t = parTrilha[p];
+            int c = parCandidato[p];
+            if (associada[t] || trilhaDoCandidato[c] >= 0)
+                continue;
+            associada[t] = true;
+            trilhaDoCandidato[c] = t;
+            acerta(t, candidatos, c);
+        }
+
+        //Trilhas sem candidato seguem pela previsão ou são removidas
+        int mantidas = 0;
+        for (int t = 0; t < tamanho; t++) {
+            if (!associada[t]) {
+                perdidos[t]++;
+                x[t] += (int) Math.round(vx[t]);
+                y[t] += (int) Math.round(vy[t]);
+                acertos[t] = 0;
+                if (!confirmada[t] || perdidos[t] > maxPerdidos)
+                    continue;
+            }
+            move(t, mantidas++);
+        }
+        tamanho = mantidas;
+
+        //Candidatos sem trilha abrem trilhas novas
+        for (int c = 0; c < m; c++)
+            if (mantido[c] && trilhaDoCandidato[c] < 0)
+                nova(candidatos, c);
+    }
+
+    /**
+     * Marca como não mantido todo candidato com IoU acima do mínimo com um
+     * candidato anterior mantido.
+     */
+    private void juntaRepetidos(ArmazemDeteccoes candidatos, int m) {
+        for (int i = 0; i < m; i++) {
+            mantido[i] = true;
+            trilhaDoCandidato[i] = -1;
+            int n = grade.consulta(candidatos.getX(i), candidatos.getY(i), vizinhos);
+            for (int k = 0; k < n; k++) {
+                int j = vizinhos[k];
+                if (j < i && mantido[j] && iou(candidatos, i, candidatos.getX(j), candidatos.getY(j),
+                        candidatos.getWidth(j), candidatos.getHeight(j)) >= iouMinimo) {
+                    mantido[i] = false;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lista os pares trilha/candidato com IoU acima do mínimo, usando a
+     * posição prevista das trilhas.
+     *
+     * @return Numero de pares.
+     */
+    private int procuraPares(ArmazemDeteccoes candidatos) {
+        int nPares = 0;
+        for (int t = 0; t < tamanho; t++) {
+            int px = x[t] + (int) Math.round(vx[t]);
+            int py = y[t] + (int) Math.round(vy[t]);
+            int n = grade.consulta(px, py, vizinhos);
+            for (int k = 0; k < n; k++) {
+                int c = vizinhos[k];
+                if (!mantido[c])
+                    continue;
+                double v = iou(candidatos, c, px, py, largura[t], altura[t]);
+                if (v < iouMinimo)
+                    continue;
+                if (nPares == pares.length) {
+                    pares = Arrays.copyOf(pares, nPares * 2);
+                    parTrilha = Arrays.copyOf(parTrilha, nPares * 2);
+                    parCandidato = Arrays.copyOf(parCandidato, nPares * 2);
+                }
+                pares[nPares] = ((long) (v * 1e6) << 32) | nPares;
+                parTrilha[nPares] = t;
+                parCandidato[nPares] = c;
+                nPares++;
+            }
+        }
+        return nPares;
+    }
+
+    /**
+     * IoU entre o candidato i e uma caixa dada pelo centro e tamanho.
+     */
+    private static double iou(ArmazemDeteccoes candidatos, int i, int cx, int cy, int w, int h) {
+        int w1 = candidatos.getWidth(i), h1 = candidatos.getHeight(i);
+        int x1 = candidatos.getX(i) - w1 / 2, y1 = candidatos.getY(i) - h1 / 2;
+        int x2 = cx - w / 2, y2 = cy - h / 2;
+        int iw = Math.min(x1 + w1, x2 + w) - Math.max(x1, x2);
+        int ih = Math.min(y1 + h1, y2 + h) - Math.max(y1, y2);
+        if (iw <= 0 || ih <= 0)
+            return 0;
+        double intersecao = (double) iw * ih;
+        return intersecao / ((double) w1 * h1 + (double) w * h - intersecao);
+    }
+
+    private void acerta(int t, ArmazemDeteccoes candidatos, int c) {
+        int cx = candidatos.getX(c), cy = candidatos.getY(c);
+        vx[t] += (cx - x[t] - vx[t]) * PESO_MOVIMENTO;
+        vy[t] += (cy - y[t] - vy[t]) * PESO_MOVIMENTO;
+        x[t] = cx;
+        y[t] = cy;
+        largura[t] = candidatos.getWidth(c);
+        altura[t] = candidatos.getHeight(c);
+        perdidos[t] = 0;
+        acertos[t]++;
+        if (acertos[t] >= acertosConfirmacao)
+            confirmada[t] = true;
+    }
+
+    private void nova(ArmazemDeteccoes candidatos, int c) {
+        garanteTrilhas(tamanho + 1);
+        int t = tamanho++;
+        id[t] = proximoId++;
+        x[t] = candidatos.getX(c);
+        y[t] = candidatos.getY(c);
+        largura[t] = candidatos.getWidth(c);
+        altura[t] = candidatos.getHeight(c);
+        vx[t] = vy[t] = 0;
+        acertos[t] = 1;
+        perdidos[t] = 0;
+        confirmada[t] = acertosConfirmacao <= 1;
+    }
+
+    private void move(int de, int para) {
+        if (de == para)
+            return;
+        id[para] = id[de];
+        x[para] = x[de];
+        y[para] = y[de];
+        largura[para] = largura[de];
+        altura[para] = altura[de];
+        vx[para] = vx[de];
+        vy[para] = vy[de];
+        acertos[para] = acertos[de];
+        perdidos[para] = perdidos[de];
+        confirmada[para] = confirmada[de];
+    }
+
+    private void garanteCandidatos(int m) {
+        if (mantido.length < m) {
+            mantido = new boolean[m * 2];
+            trilhaDoCandidato = new int[m * 2];
+        }
+        if (vizinhos.length < m)
+            vizinhos = new int[m * 2];
+    }
+
+    private void garanteTrilhas(int n) {
+        if (id.length >= n)
+            return;
+        int c = n * 2;
+        id = Arrays.copyOf(id, c);
+        x = Arrays.copyOf(x, c);
+        y = Arrays.copyOf(y, c);
+        largura = Arrays.copyOf(largura, c);
+        altura = Arrays.copyOf(altura, c);
+        vx = Arrays.copyOf(vx, c);
+        vy = Arrays.copyOf(vy, c);
+        acertos = Arrays.copyOf(acertos, c);
+        perdidos = Arrays.copyOf(perdidos, c);
+        confirmada = Arrays.copyOf(confirmada, c);
+        associada = Arrays.copyOf(associada, c);
+    }
+
+    /**
+     * Copia as trilhas confirmadas (incluindo as perdidas há pouco) para o
+     * quadro, para a exibição e as saídas.
+     *
+     * @param q Quadro que recebe os alvos.
+     */
+    public void exporta(Quadro q) {
+        q.limpaAlvos();
+        for (int t = 0; t < tamanho; t++)
+            if (confirmada[t])
+                q.adicionaAlvo(id[t], x[t], y[t], largura[t], altura[t]);
+    }
+
+    /**
+     * @return Numero de trilhas, de todos os estados.
+     */
+    public int size() {
+        return tamanho;
+    }
+
+    public int getId(int t) {
+        return id[t];
+    }
+
+    public int getX(int t) {
+        return x[t];
+    }
+
+    public int getY(int t) {
+        return y[t];
+    }
+
+    public int getWidth(int t) {
+        return largura[t];
+    }
+
+    public int getHeight(int t) {
+        return altura[t];
+    }
+
+    public Estado getEstado(int t) {
+        if (!confirmada[t])
+            return Estado.Tentativa;
+        return perdidos[t] > 0 ? Estado.Perdida : Estado.Confirmada;
+    }
+}
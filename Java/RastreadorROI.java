@@ -0,0 +1,176 @@
+
+import org.opencv.core.Rect;
+
+import static java.lang.Math.abs;
+
+/**
+ * Planeja a {@linkplain PlanoDeteccao#getRoi() região de busca} dos cascades a
+ * partir do último objeto confirmado pela {@link EstruturaAmostras}. Enquanto
+ * existe um objeto confirmado, os cascades rodam só em uma janela em volta
+ * dele, aumentada por uma margem e pelo movimento recente do objeto. A cada
+ * {@link #intervaloVarredura} quadros, ou quando o objeto é perdido, o quadro
+ * inteiro volta a ser varrido. Se um planejador anterior (o
+ * {@link FiltroMovimento}) já limitou a busca, a janela é juntada à região
+ * dele, e não a substitui.
+ * <p>
+ * Os métodos são sincronizados porque, no {@linkplain PipelineDeteccao pipeline},
+ * o planejamento é feito na captura e a atualização na fusão, em threads
+ * diferentes.
+ */
+public class RastreadorROI {
+
+    /**
+     * Os lados da janela são arredondados para múltiplos desse valor, para
+     * que o tamanho das imagens da detecção mude pouco de um quadro para o
+     * outro e o OpenCV não precise realocá-las.
+     */
+    private static final int QUANTIZACAO = 32;
+
+    /**
+     * Peso do movimento mais recente na média do movimento.
+     */
+    private static final double PESO_MOVIMENTO = 0.5;
+
+    /**
+     * Fração do tamanho do objeto adicionada em cada lado da janela.
+     */
+    private final double margem;
+    /**
+     * Numero máximo de quadros seguidos varridos só na janela.
+     */
+    private final int intervaloVarredura;
+
+    private boolean rastreando;
+    /**
+     * Centro e tamanho do último objeto confirmado.
+     */
+    private int cx, cy, largura, altura;
+    /**
+     * Movimento médio do centro do objeto, em pixels por quadro.
+     */
+    private double vx, vy;
+    /**
+     * Indice do quadro em que o objeto foi confirmado pela última vez.
+     */
+    private long indiceObjeto;
+    private int quadrosNaJanela;
+
+    /**
+     * @param margem Fração do tamanho do objeto adicionada em cada lado da
+     * janela.
+     * @param intervaloVarredura A cada quantos quadros o quadro inteiro é
+     * varrido mesmo com um objeto rastreado.
+     */
+    public RastreadorROI(double margem, int intervaloVarredura) {
+        this.margem = margem;
+        this.intervaloVarredura = intervaloVarredura;
+    }
+
+    /**
+     * Define a região de busca no plano do quadro, que já deve ter a imagem
+     * normal capturada. Uma região já planejada é mantida e aumentada até
+     * conter a janela.
+     *
+     * @param q Quadro a planejar.
+     */
+    public synchronized void planeja(Quadro q) {
+        if (!rastreando || quadrosNaJanela >= intervaloVarredura) {
+            //Mantém a região planejada, ou o quadro inteiro se não há
+            quadrosNaJanela = 0;
+            return;
+        }
+
+        int larguraQuadro = q.getNormal().cols();
+        int alturaQuadro = q.getNormal().rows();
+
+        //O objeto pode ter andado durante os quadros desde a última confirmação
+        long atraso = Math.max(1, q.getIndice() - indiceObjeto);
+        double mx = largura * margem + abs(vx) * atraso;
+        double my = altura * margem + abs(vy) * atraso;
+        int w = quantiza(largura + 2 * mx, larguraQuadro);
+        int h = quantiza(altura + 2 * my, alturaQuadro);
+
+        if (w >= larguraQuadro && h >= alturaQuadro) {
+            //A janela já cobre o quadro todo
+            quadrosNaJanela = 0;
+            return;
+        }
+
+        int px = (int) (cx + vx * atraso);
+        int py = (int) (cy + vy * atraso);
+        int x = limita(px - w / 2, larguraQuadro - w);
+        int y = limita(py - h / 2, alturaQuadro - h);
+        PlanoDeteccao plano = q.getPlano();
+        Rect roi = plano.getRoi();
+        if (plano.temRoi()) {
+            //Junta a janela à região já planejada
+            int x1 = Math.max(x + w, roi.x + roi.width);
+            int y1 = Math.max(y + h, roi.y + roi.height);
+            x = Math.min(x, roi.x);
+            y = Math.min(y, roi.y);
+            w = quantiza(x1 - x, larguraQuadro);
+            h = quantiza(y1 - y, alturaQuadro);
+            if (w >= larguraQuadro && h >= alturaQuadro) {
+                roi.x = roi.y = roi.width = roi.height = 0;
+                quadrosNaJanela = 0;
+                return;
+            }
+            x = Math.min(x, larguraQuadro - w);
+            y = Math.min(y, alturaQuadro - h);
+        }
+        roi.width = w;
+        roi.height = h;
+        roi.x = x;
+        roi.y = y;
+        quadrosNaJanela++;
+    }
+
+    /**
+     * Atualiza o objeto rastreado com o resultado da fusão.
+     *
+     * @param resultado Amostra positiva verdadeira do quadro, ou null se o
+     * objeto foi perdido.
+     * @param indice Indice do quadro.
+     */
+    public synchronized void atualiza(ObjDetec resultado, long indice) {
+        if (resultado == null) {
+            rastreando = false;
+            vx = vy = 0;
+            return;
+        }
+
+        int x = resultado.getCenter().x;
+        int y = resultado.getCenter().y;
+        if (rastreando) {
+            long passos = Math.max(1, indice - indiceObjeto);
+            vx = PESO_MOVIMENTO * (x - cx) / passos + (1 - PESO_MOVIMENTO) * vx;
+            vy = PESO_MOVIMENTO * (y - cy) / passos + (1 - PESO_MOVIMENTO) * vy;
+        }
+        cx = x;
+        cy = y;
+        largura = resultado.getWidth();
+        altura = resultado.getHeight();
+        indiceObjeto = indice;
+        rastreando = true;
+    }
+
+    /**
+     * @return Se existe um objeto confirmado sendo rastreado.
+     */
+    public synchronized boolean isRastreando() {
+        return rastreando;
+    }
+
+    private static int quantiza(double tamanho, int maximo) {
+        int t = ((int) Math.ceil(tamanho / QUANTIZACAO)) * QUANTIZACAO;
+        return Math.min(t, maximo);
+    }
+
+    private static int limita(int v, int maximo) {
+        if (v > maximo)
+            v = maximo;
+        if (v < 0)
+            v = 0;
+        return v;
+    }
+}
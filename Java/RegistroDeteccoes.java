@@ -0,0 +1,62 @@
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Registra o resultado de cada quadro em um arquivo CSV, com as colunas
+ * indice, tempo (ms desde o primeiro quadro), encontrado, x, y, largura e
+ * altura. O centro e o tamanho ficam vazios nos quadros sem objeto.
+ */
+public class RegistroDeteccoes implements SaidaDeteccoes {
+
+    private final PrintWriter saida;
+    private long tempoInicial = -1;
+
+    /**
+     * @param arquivo Caminho do arquivo CSV, que é sobrescrito.
+     * @throws IOException Se não for possivel criar o arquivo.
+     */
+    public RegistroDeteccoes(String arquivo) throws IOException {
+        saida = new PrintWriter(new BufferedWriter(new FileWriter(arquivo)));
+        saida.println("indice,tempo,encontrado,x,y,largura,altura");
+    }
+
+    @Override
+    public void escreve(Quadro q) {
+        escreve(q.getIndice(), q.getTempoCaptura(), q.getResultado());
+    }
+
+    /**
+     * Registra o resultado de um quadro.
+     *
+     * @param indice Indice do quadro.
+     * @param tempoCaptura Momento da captura ({@link System#nanoTime()}).
+     * @param o Resultado da fusão, ou null.
+     */
+    public void escreve(long indice, long tempoCaptura, ObjDetec o) {
+        if (tempoInicial < 0)
+            tempoInicial = tempoCaptura;
+        saida.print(indice);
+        saida.print(',');
+        saida.print((tempoCaptura - tempoInicial) / 1000000);
+        if (o == null) {
+            saida.println(",0,,,,");
+            return;
+        }
+        saida.print(",1,");
+        saida.print(o.getCenter().x);
+        saida.print(',');
+        saida.print(o.getCenter().y);
+        saida.print(',');
+        saida.print(o.getWidth());
+        saida.print(',');
+        saida.println(o.getHeight());
+    }
+
+    @Override
+    public void close() {
+        saida.close();
+    }
+}
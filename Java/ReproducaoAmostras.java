@@ -0,0 +1,198 @@
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Repete a fusão sobre as saídas dos cascades gravadas por
+ * {@link GravadorAmostras}, sem câmera, sem OpenCV e sem tratamento de
+ * imagem. O arquivo é lido mapeado em memória, em janelas, e os retângulos
+ * são passados para a {@link EstruturaAmostras} direto do mapeamento
+ * ({@link EstruturaAmostras#saveObjs(IntBuffer, ObjDetec.CascOrigin)}), sem
+ * cópia. Serve para ajustar os parâmetros e a lógica da fusão com horas de
+ * vídeo em segundos.
+ * <p>
+ * Com um {@link RegistroDeteccoes}, cada quadro gravado gera uma linha, como
+ * na detecção ao vivo. Os quadros em que os cascades não rodaram repetem o
+ * último resultado da fusão. Ao vivo, isso é o que acontece quando a cena não
+ * mudou ou não há preditor; quando o quadro foi
+ * {@linkplain PreditorMovimento#prediz(long) previsto}, a linha ao vivo tem a
+ * previsão, e só essas linhas diferem.
+ * <p>
+ * Uso:
+ * {@code ReproducaoAmostras arquivo [-frames n] [-supressao iou] [-saida arquivo.csv]}.
+ * Sem {@code -supressao}, a supressão é a mesma da detecção ao vivo
+ * ({@link EstruturaAmostras#IOU_SUPRESSAO_PADRAO}).
+ */
+public class ReproducaoAmostras {
+
+    /**
+     * Tamanho máximo de cada janela mapeada do arquivo.
+     */
+    private static final long JANELA = 64L << 20;
+    /**
+     * Tamanho fixo do início de um registro (indice, tempo e numCascades).
+     */
+    private static final int CABECALHO_REGISTRO = 8 + 8 + 4;
+
+    private final FileChannel canal;
+    private final long tamanho;
+    private MappedByteBuffer mapa;
+    private IntBuffer inteiros;
+    /**
+     * Posição do início do mapeamento atual no arquivo.
+     */
+    private long inicioMapa;
+
+    private long quadros;
+    private long quadrosDetectados;
+    private long quadrosComObjeto;
+    private long retangulos;
+
+    /**
+     * @param arquivo Caminho do arquivo gravado.
+     * @throws IOException Se o arquivo não puder ser lido ou não for uma
+     * gravação válida.
+     */
+    public ReproducaoAmostras(String arquivo) throws IOException {
+        canal = new RandomAccessFile(arquivo, "r").getChannel();
+        tamanho = canal.size();
+        mapeia(0);
+        if (tamanho < 8 || mapa.getInt() != GravadorAmostras.MAGICO)
+            throw new IOException(arquivo + " não é uma gravação de amostras.");
+        int versao = mapa.getInt();
+        if (versao != GravadorAmostras.VERSAO)
+            throw new IOException("Versão de gravação não suportada: " + versao);
+    }
+
+    /**
+     * Passa todos os registros pela fusão. Os quadros sem detecção repetem o
+     * último resultado no registro.
+     *
+     * @param amostras Estrutura que recebe as amostras.
+     * @param registro Onde o resultado de cada quadro é registrado, ou null.
+     * @throws IOException Se o arquivo estiver truncado ou não puder ser
+     * lido.
+     */
+    public void reproduz(EstruturaAmostras amostras, RegistroDeteccoes registro) throws IOException {
+        ObjDetec ultimo = null; //Reusado pela estrutura, e válido até a próxima fusão
+        while (posicao() < tamanho) {
+            garante(CABECALHO_REGISTRO);
+            long indice = mapa.getLong();
+            long tempo = mapa.getLong();
+            int numCascades = mapa.getInt();
+            quadros++;
+            if (numCascades == 0) {
+                //Quadro sem detecção: repete a última fusão, como ao vivo
+                if (registro != null)
+                    registro.escreve(indice, tempo, ultimo);
+                continue;
+            }
+
+            for (int c = 0; c < numCascades; c++) {
+                garante(8);
+                ObjDetec.CascOrigin orig = ObjDetec.CascOrigin.fromId(mapa.getInt());
+                int n = mapa.getInt();
+                garante(n * 16);
+                //Visão dos retângulos no mapeamento, sem copiar
+                int p = (mapa.position() >> 2);
+                inteiros.limit(p + n * 4).position(p);
+                amostras.saveObjs(inteiros, orig);
+                mapa.position(mapa.position() + n * 16);
+                retangulos += n;
+            }
+            ObjDetec o = amostras.evaluateSamples();
+            ultimo = o;
+            quadrosDetectados++;
+            if (o != null)
+                quadrosComObjeto++;
+            if (registro != null)
+                registro.escreve(indice, tempo, o);
+        }
+    }
+
+    private long posicao() {
+        return inicioMapa + mapa.position();
+    }
+
+    /**
+     * Garante que os próximos bytes estão no mapeamento atual, mapeando uma
+     * nova janela a partir da posição atual se preciso.
+     */
+    private void garante(int bytes) throws IOException {
+        if (mapa.remaining() >= bytes)
+            return;
+        if (posicao() + bytes > tamanho)
+            throw new IOException("Gravação truncada na posição " + posicao());
+        mapeia(posicao());
+        if (mapa.remaining() < bytes)
+            throw new IOException("Registro maior que a janela de mapeamento na posição " + posicao());
+    }
+
+    private void mapeia(long inicio) throws IOException {
+        inicioMapa = inicio;
+        mapa = canal.map(FileChannel.MapMode.READ_ONLY, inicio, Math.min(JANELA, tamanho - inicio));
+        inteiros = mapa.asIntBuffer(); //Alinhado, pois os registros só tem campos de 4 e 8 bytes
+    }
+
+    public long getQuadros() {
+        return quadros;
+    }
+
+    public long getQuadrosDetectados() {
+        return quadrosDetectados;
+    }
+
+    public long getQuadrosComObjeto() {
+        return quadrosComObjeto;
+    }
+
+    public long getRetangulos() {
+        return retangulos;
+    }
+
+    public void close() throws IOException {
+        canal.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Uso: ReproducaoAmostras arquivo [-frames n] [-supressao iou] [-saida arquivo.csv]");
+            return;
+        }
+        int numFrames = 5;
+        double iouSupressao = EstruturaAmostras.IOU_SUPRESSAO_PADRAO;
+        String saida = null;
+        for (int i = 1; i + 1 < args.length; i += 2)
+            switch (args[i]) {
+                case "-frames":
+                    numFrames = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-supressao":
+                    iouSupressao = Double.parseDouble(args[i + 1]);
+                    break;
+                case "-saida":
+                    saida = args[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Opção desconhecida: " + args[i]);
+            }
+
+        ReproducaoAmostras reproducao = new ReproducaoAmostras(args[0]);
+        RegistroDeteccoes registro = saida == null ? null : new RegistroDeteccoes(saida);
+        EstruturaAmostras amostras = new EstruturaAmostras(numFrames);
+        amostras.setSuppression(iouSupressao);
+        long inicio = System.nanoTime();
+        reproducao.reproduz(amostras, registro);
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        if (registro != null)
+            registro.close();
+        reproducao.close();
+
+        System.out.println(String.format("%d quadros (%d detectados, %d com objeto), %d retângulos em %.2f s (%.0f quadros/s)",
+                reproducao.getQuadros(), reproducao.getQuadrosDetectados(), reproducao.getQuadrosComObjeto(),
+                reproducao.getRetangulos(), segundos, reproducao.getQuadrosDetectados() / segundos));
+    }
+}
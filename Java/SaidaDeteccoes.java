@@ -0,0 +1,23 @@
+
+/**
+ * Destino dos resultados da fusão de cada quadro, como o
+ * {@linkplain RegistroDeteccoes registro em arquivo}. Recebe todos os
+ * quadros fundidos, com ou sem objeto encontrado: é chamada logo depois da
+ * fusão, antes das filas que podem descartar quadros.
+ */
+public interface SaidaDeteccoes {
+
+    /**
+     * Recebe o resultado de um quadro. É chamado sempre pelo mesmo thread, na
+     * ordem dos quadros.
+     *
+     * @param q Quadro processado. O resultado está em
+     * {@link Quadro#getResultado()} e só é válido durante a chamada.
+     */
+    void escreve(Quadro q);
+
+    /**
+     * Fecha a saída, liberando arquivos.
+     */
+    void close();
+}
@@ -0,0 +1,26 @@
+
+import org.opencv.core.Mat;
+
+/**
+ * Destino dos quadros anotados (com o resultado desenhado), como a
+ * {@linkplain JanelaExibicao janela}, um {@linkplain GravadorVideo arquivo de vídeo}
+ * ou uma {@linkplain SequenciaImagens sequência de imagens}. Sem nenhuma
+ * saída de quadros o desenho e a conversão da imagem não são feitos.
+ */
+public interface SaidaQuadros {
+
+    /**
+     * Recebe um quadro processado. É chamado sempre pelo mesmo thread, na
+     * ordem dos quadros.
+     *
+     * @param q Quadro processado, com o resultado da fusão.
+     * @param imagem Imagem do quadro com o resultado desenhado. Só é válida
+     * durante a chamada.
+     */
+    void escreve(Quadro q, Mat imagem);
+
+    /**
+     * Fecha a saída, liberando arquivos e janelas.
+     */
+    void close();
+}
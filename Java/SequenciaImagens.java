@@ -0,0 +1,33 @@
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Salva cada quadro anotado em um arquivo de imagem. O nome do arquivo é
+ * gerado pelo padrão com o {@linkplain Quadro#getIndice() indice} do quadro,
+ * por exemplo {@code "saida/quadro%06d.png"}. O formato vem da extensão.
+ */
+public class SequenciaImagens implements SaidaQuadros {
+
+    private final String padrao;
+
+    /**
+     * @param padrao Padrão do nome dos arquivos, no formato de
+     * {@link String#format(String, Object...)}, com o indice do quadro como
+     * único argumento.
+     */
+    public SequenciaImagens(String padrao) {
+        this.padrao = padrao;
+    }
+
+    @Override
+    public void escreve(Quadro q, Mat imagem) {
+        String arquivo = String.format(padrao, q.getIndice());
+        if (!Imgcodecs.imwrite(arquivo, imagem))
+            System.err.println("Não foi possivel salvar " + arquivo);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,240 @@
+
+import org.opencv.core.Core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processa várias fontes de vídeo ao mesmo tempo, sem janela. Cada fonte é
+ * um {@link FluxoDeteccao} com o seu próprio estado, e todos dividem um pool
+ * fixo de trabalhadores e um {@link PoolDetectores} limitado.
+ * <p>
+ * Cada fluxo tem no máximo um quadro em processamento: quando um trabalhador
+ * termina um quadro, o próximo quadro do mesmo fluxo volta para o fim da fila
+ * de tarefas. Assim os fluxos se alternam nos trabalhadores, os quadros de um
+ * fluxo são fundidos em ordem, e com pelo menos um trabalhador e um detector
+ * por núcleo a vazão total cresce com o número de núcleos até o número de
+ * fluxos.
+ * <p>
+ * Uso: {@code ServidorDeteccao [-supressao iou] [fonte...]}, onde cada fonte é
+ * o indice de uma câmera ou o caminho de um arquivo de vídeo. Sem
+ * {@code -supressao}, a supressão é a mesma da detecção ao vivo
+ * ({@link EstruturaAmostras#IOU_SUPRESSAO_PADRAO}).
+ */
+public class ServidorDeteccao {
+
+    private static final String XML_NORMAL = "18N.xml";
+    private static final String XML_HSV = "21H.xml";
+    private static final String XML_INRANGE = "20In.xml";
+    private static final int NUM_FRAMES = 5;
+    private static final long INTERVALO_RELATORIO = 5000; //ms entre os relatórios
+    private static final boolean RASTREIO_ROI = true;
+    private static final double MARGEM_ROI = 0.5;
+    private static final int VARREDURA_COMPLETA = 15;
+    private static final boolean ESCALA_ADAPTATIVA = true;
+    private static final double ESCALA_DETECCAO = 1;
+    private static final int JANELA_CASCADE = 24;
+    private static final double FOLGA_TAMANHO = 0.3;
+
+    private final ArrayList<FluxoDeteccao> fluxos = new ArrayList<>();
+    private final PoolDetectores detectores;
+    private final ExecutorService trabalhadores;
+    private CountDownLatch ativos;
+    private volatile boolean rodando;
+    private Thread monitor;
+
+    /**
+     * @param numTrabalhadores Threads que processam os quadros.
+     * @param numDetectores Detectores (conjuntos de 3 cascades) carregados.
+     * Mais detectores que trabalhadores não tem efeito.
+     * @param xmlNormal Caminho do XML do cascade Normal.
+     * @param xmlHsv Caminho do XML do cascade HSV.
+     * @param xmlInRange Caminho do XML do cascade InRange.
+     */
+    public ServidorDeteccao(int numTrabalhadores, int numDetectores, String xmlNormal, String xmlHsv, String xmlInRange) {
+        detectores = new PoolDetectores(Math.min(numDetectores, numTrabalhadores), xmlNormal, xmlHsv, xmlInRange);
+        trabalhadores = Executors.newFixedThreadPool(numTrabalhadores, r -> {
+            Thread t = new Thread(r, "servidor-trabalhador");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Inclui uma fonte. Deve ser chamado antes de {@link #inicia(long)}.
+     *
+     * @param fonte Indice da câmera ou caminho do arquivo de vídeo.
+     * @return O fluxo criado.
+     */
+    public FluxoDeteccao adicionaFluxo(String fonte) {
+        RastreadorROI rastreador = RASTREIO_ROI ? new RastreadorROI(MARGEM_ROI, VARREDURA_COMPLETA) : null;
+        EscalaAdaptativa escala = ESCALA_ADAPTATIVA ? new EscalaAdaptativa(ESCALA_DETECCAO, JANELA_CASCADE, FOLGA_TAMANHO) : null;
+        FluxoDeteccao f = new FluxoDeteccao("fluxo" + fluxos.size(), fonte, NUM_FRAMES, rastreador, escala);
+        fluxos.add(f);
+        return f;
+    }
+
+    /**
+     * Abre as fontes e começa o processamento. Fontes que não abrem são
+     * avisadas e ignoradas.
+     *
+     * @param intervaloRelatorio Tempo em milisegundos entre as impressões do
+     * {@linkplain #relatorio() relatório}. Zero desliga o relatório.
+     */
+    public void inicia(long intervaloRelatorio) {
+        rodando = true;
+        Metricas.registraMBeans();
+        ArrayList<FluxoDeteccao> abertos = new ArrayList<>();
+        for (FluxoDeteccao f : fluxos)
+            if (f.abre())
+                abertos.add(f);
+            else
+                System.err.println("Não foi possivel abrir " + f.getNome());
+        ativos = new CountDownLatch(abertos.size());
+        for (FluxoDeteccao f : abertos)
+            trabalhadores.execute(new Tarefa(f));
+
+        if (intervaloRelatorio > 0) {
+            monitor = new Thread("servidor-monitor") {
+                @Override
+                public void run() {
+                    try {
+                        while (rodando) {
+                            Thread.sleep(intervaloRelatorio);
+                            System.out.println(relatorio());
+                            System.out.println(Metricas.relatorio());
+                        }
+                    } catch (InterruptedException ex) {
+                        //Servidor parado
+                    }
+                }
+            };
+            monitor.setDaemon(true);
+            monitor.start();
+        }
+    }
+
+    /**
+     * Processa um quadro de um fluxo e agenda o próximo.
+     */
+    private class Tarefa implements Runnable {
+
+        private final FluxoDeteccao fluxo;
+
+        Tarefa(FluxoDeteccao fluxo) {
+            this.fluxo = fluxo;
+        }
+
+        @Override
+        public void run() {
+            boolean continua = false;
+            try {
+                continua = rodando && fluxo.processa(detectores);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException ex) {
+                System.err.println(fluxo.getNome() + ": " + ex);
+            }
+            if (continua)
+                trabalhadores.execute(this);
+            else
+                ativos.countDown();
+        }
+    }
+
+    /**
+     * Espera todos os fluxos terminarem (fim dos arquivos ou
+     * {@link #para()}).
+     *
+     * @throws InterruptedException Se o thread for interrompido.
+     */
+    public void aguarda() throws InterruptedException {
+        ativos.await();
+    }
+
+    /**
+     * Para de agendar quadros e espera os que estão em processamento.
+     */
+    public void para() {
+        rodando = false;
+        if (monitor != null)
+            monitor.interrupt();
+        try {
+            if (ativos != null)
+                ativos.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Para o servidor e libera os trabalhadores, as fontes e os detectores.
+     */
+    public void release() {
+        para();
+        trabalhadores.shutdown();
+        try {
+            trabalhadores.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (FluxoDeteccao f : fluxos)
+            f.release();
+        detectores.close();
+    }
+
+    public ArrayList<FluxoDeteccao> getFluxos() {
+        return fluxos;
+    }
+
+    /**
+     * Monta uma linha com a vazão e a latência de cada fluxo, e a vazão
+     * total. Os valores são calculados desde o último relatório.
+     *
+     * @return Texto do relatório.
+     */
+    public String relatorio() {
+        StringBuilder sb = new StringBuilder("servidor:");
+        double total = 0;
+        for (FluxoDeteccao f : fluxos) {
+            double vazao = f.amostraVazao();
+            total += vazao;
+            sb.append(String.format(" %s[%.1f fps lat=%.1fms max=%.1fms]", f.getNome(), vazao,
+                    f.getLatenciaMedia(), f.getLatenciaMaxima()));
+        }
+        sb.append(String.format(" total=%.1f fps detectores livres=%d/%d", total,
+                detectores.getLivres(), detectores.getTamanho()));
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        double iouSupressao = EstruturaAmostras.IOU_SUPRESSAO_PADRAO;
+        ArrayList<String> fontes = new ArrayList<>();
+        for (int i = 0; i < args.length; i++)
+            if (args[i].equals("-supressao"))
+                iouSupressao = Double.parseDouble(args[++i]);
+            else
+                fontes.add(args[i]);
+        if (fontes.isEmpty())
+            fontes.add("0");
+
+        int nucleos = Runtime.getRuntime().availableProcessors();
+        int numTrabalhadores = Math.min(nucleos, fontes.size());
+        ServidorDeteccao servidor = new ServidorDeteccao(numTrabalhadores, numTrabalhadores,
+                LocalizadorCascades.resolve(XML_NORMAL), LocalizadorCascades.resolve(XML_HSV),
+                LocalizadorCascades.resolve(XML_INRANGE));
+        for (String fonte : fontes)
+            servidor.adicionaFluxo(fonte).setSupressao(iouSupressao);
+        Runtime.getRuntime().addShutdownHook(new Thread(servidor::para));
+
+        servidor.inicia(INTERVALO_RELATORIO);
+        servidor.aguarda();
+        System.out.println(servidor.relatorio());
+        servidor.release();
+    }
+}
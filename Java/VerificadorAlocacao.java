@@ -0,0 +1,117 @@
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Verifica se o laço de processamento está estável, ou seja, se não aloca
+ * objetos Java nem memória nativa a cada quadro depois do aquecimento.
+ * <p>
+ * As alocações Java são medidas somando os bytes alocados pelos threads
+ * {@linkplain #registra(Thread) registrados} (o laço, os estágios do pipeline
+ * e os ramos da detecção). A leitura é feita pelo thread que chama
+ * {@link #relatorio()}, que não deve ser um dos registrados. As alocações
+ * nativas são percebidas pela mudança do endereço dos dados das imagens de
+ * cada {@link Quadro} ({@link Quadro#confereEnderecos()}). A saída de
+ * {@code detectMultiScale} não entra nessa conta, pois o OpenCV sempre cria
+ * uma matriz nova para ela.
+ */
+public class VerificadorAlocacao {
+
+    private final com.sun.management.ThreadMXBean mx;
+
+    /**
+     * Quadros ignorados no começo, enquanto as matrizes ainda estão sendo
+     * alocadas.
+     */
+    private final int aquecimento;
+
+    private long[] threads = new long[0];
+
+    private long quadros;
+    private long realocacoes;
+    private long quadrosAmostra;
+    private long realocacoesAmostra;
+    private long bytesAmostra = -1;
+
+    /**
+     * @param aquecimento Numero de quadros ignorados no começo.
+     */
+    public VerificadorAlocacao(int aquecimento) {
+        this.aquecimento = aquecimento;
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            mx = (com.sun.management.ThreadMXBean) bean;
+            mx.setThreadAllocatedMemoryEnabled(true);
+        } else
+            mx = null;
+    }
+
+    /**
+     * Inclui um thread na medição das alocações Java.
+     *
+     * @param t Thread que participa do processamento dos quadros.
+     */
+    public synchronized void registra(Thread t) {
+        threads = Arrays.copyOf(threads, threads.length + 1);
+        threads[threads.length - 1] = t.getId();
+    }
+
+    /**
+     * Deve ser chamado uma vez por quadro, depois que ele foi processado.
+     *
+     * @param q Quadro processado.
+     */
+    public void confere(Quadro q) {
+        int realocadas = q.confereEnderecos();
+        synchronized (this) {
+            quadros++;
+            if (quadros > aquecimento)
+                realocacoes += realocadas;
+        }
+    }
+
+    /**
+     * Calcula as alocações por quadro desde o último relatório.
+     *
+     * @return Linha de texto com o resultado, ou null se ainda está no
+     * aquecimento.
+     */
+    public String relatorio() {
+        long bytes = bytesAlocados();
+        long q, r, anterior;
+        synchronized (this) {
+            anterior = quadrosAmostra;
+            q = quadros - quadrosAmostra;
+            r = realocacoes - realocacoesAmostra;
+            quadrosAmostra = quadros;
+            realocacoesAmostra = realocacoes;
+        }
+        long b = bytes - bytesAmostra;
+        boolean primeira = bytesAmostra < 0;
+        bytesAmostra = bytes;
+        if (primeira || anterior < aquecimento || q == 0)
+            return null;
+
+        double bytesPorQuadro = (mx == null) ? 0 : (double) b / q;
+        double realocPorQuadro = (double) r / q;
+        boolean estavel = bytesPorQuadro == 0 && r == 0;
+        return String.format("alocacao: %.0f bytes/quadro java, %.2f realocacoes/quadro nativas%s%s",
+                bytesPorQuadro, realocPorQuadro, estavel ? "" : " (laço alocando)",
+                mx == null ? " [medição java indisponivel]" : "");
+    }
+
+    private long bytesAlocados() {
+        long[] ids;
+        synchronized (this) {
+            ids = threads;
+        }
+        if (mx == null || ids.length == 0)
+            return 0;
+        long total = 0;
+        for (long b : mx.getThreadAllocatedBytes(ids))
+            if (b > 0)
+                total += b;
+        return total;
+    }
+}